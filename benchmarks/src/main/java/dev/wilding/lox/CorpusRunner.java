@@ -0,0 +1,208 @@
+package dev.wilding.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+public class CorpusRunner {
+  private static final String UNSUPPORTED = "Classes require the tree-walking interpreter.";
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final LoxEngine engine;
+  private final int warmups;
+  private final int runs;
+
+  private CorpusRunner(LoxEngine engine, int warmups, int runs) {
+    this.engine = engine;
+    this.warmups = warmups;
+    this.runs = runs;
+  }
+
+  public static void main(String[] args) throws IOException {
+    var corpus = Paths.get("benchmarks", "lox");
+    var backend = LoxEngine.Backend.TREE;
+    var warmups = 3;
+    var runs = 10;
+    var threshold = 15.0;
+    var record = false;
+    for (var arg : args) {
+      if (arg.startsWith("--engine=")) {
+        backend = LoxEngine.Backend.fromName(arg.substring("--engine=".length()));
+      } else if (arg.startsWith("--warmup=")) {
+        warmups = Integer.parseInt(arg.substring("--warmup=".length()));
+      } else if (arg.startsWith("--runs=")) {
+        runs = Integer.parseInt(arg.substring("--runs=".length()));
+      } else if (arg.startsWith("--threshold=")) {
+        threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+      } else if (arg.equals("--record")) {
+        record = true;
+      } else if (!arg.startsWith("--")) {
+        corpus = Paths.get(arg);
+      } else {
+        backend = null;
+      }
+    }
+
+    if (backend == null || runs < 1) {
+      System.out.println(
+          "Usage: CorpusRunner [--engine=tree|nodes|closures|vm] [--warmup=N] [--runs=N]"
+              + " [--threshold=PERCENT] [--record] [corpus]");
+      System.exit(64);
+    }
+
+    var baseline = corpus.resolve("baseline-" + backend.name().toLowerCase(Locale.ROOT) + ".txt");
+    if (!record && !Files.exists(baseline)) {
+      System.err.println("No baseline at " + baseline + "; record one with --record.");
+      System.exit(1);
+    }
+    var runner = new CorpusRunner(new LoxEngine(backend, false), warmups, runs);
+    var results = runner.run(corpus);
+    if (record) {
+      writeBaseline(baseline, results);
+      System.out.println("Recorded " + baseline + ".");
+      return;
+    }
+    System.exit(report(results, readBaseline(baseline), threshold) ? 0 : 1);
+  }
+
+  private Map<String, Result> run(Path corpus) throws IOException {
+    List<Path> scripts;
+    try (var files = Files.list(corpus)) {
+      var lox = files.filter(file -> file.toString().endsWith(".lox"));
+      scripts = lox.sorted().collect(Collectors.toList());
+    }
+
+    var results = new TreeMap<String, Result>();
+    for (var script : scripts) {
+      var name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+      var expected = Files.readString(corpus.resolve(name + ".expected"));
+      results.put(name, measure(Files.readString(script), expected));
+    }
+    return results;
+  }
+
+  private Result measure(String source, String expected) {
+    var nanos = new long[runs];
+    var bytes = new long[runs];
+    for (var i = -warmups; i < runs; i++) {
+      var out = new ByteArrayOutputStream();
+      var thread = Thread.currentThread().getId();
+      var allocated = THREADS.getThreadAllocatedBytes(thread);
+      var start = System.nanoTime();
+      try {
+        engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8))
+            .run(engine.compile(source));
+      } catch (LoxException error) {
+        if (error.getErrors().stream().anyMatch(message -> message.contains(UNSUPPORTED))) {
+          return Result.SKIPPED;
+        }
+        return new Result(Status.FAILED, 0, 0);
+      }
+      if (i < 0) continue;
+
+      nanos[i] = System.nanoTime() - start;
+      bytes[i] = THREADS.getThreadAllocatedBytes(thread) - allocated;
+      if (!out.toString(StandardCharsets.UTF_8).equals(expected)) {
+        return new Result(Status.FAILED, 0, 0);
+      }
+    }
+    return new Result(Status.OK, Arrays.stream(nanos).min().getAsLong(), median(bytes));
+  }
+
+  private static boolean report(
+      Map<String, Result> results, Map<String, Result> baseline, double threshold) {
+    var passed = true;
+    System.out.println(
+        String.format(
+            "%-16s %10s %10s %8s %10s  %s",
+            "program", "best ms", "baseline", "change", "alloc MB", "status"));
+    for (var entry : results.entrySet()) {
+      var result = entry.getValue();
+      var before = baseline.get(entry.getKey());
+      var status = result.status.name().toLowerCase(Locale.ROOT);
+      var best = "";
+      var allocated = "";
+      var change = "";
+      var previous = "";
+      if (result.status == Status.OK) {
+        best = String.format("%.1f", result.nanos / 1e6);
+        allocated = String.format("%.1f", result.bytes / 1e6);
+      }
+      if (result.status == Status.OK && before != null) {
+        var percent = 100.0 * (result.nanos - before.nanos) / before.nanos;
+        change = String.format("%+.1f%%", percent);
+        previous = String.format("%.1f", before.nanos / 1e6);
+        if (percent > threshold) status = "slower";
+      } else if (result.status == Status.OK) {
+        status = "unrecorded";
+      }
+      if (!status.equals("ok") && !status.equals("skipped")) passed = false;
+      System.out.println(
+          String.format(
+              "%-16s %10s %10s %8s %10s  %s",
+              entry.getKey(), best, previous, change, allocated, status));
+    }
+    return passed;
+  }
+
+  private static Map<String, Result> readBaseline(Path path) throws IOException {
+    var baseline = new TreeMap<String, Result>();
+    for (var line : Files.readAllLines(path)) {
+      if (line.isBlank() || line.startsWith("#")) continue;
+      var fields = line.trim().split("\\s+");
+      var nanos = Long.parseLong(fields[1]);
+      baseline.put(fields[0], new Result(Status.OK, nanos, Long.parseLong(fields[2])));
+    }
+    return baseline;
+  }
+
+  private static void writeBaseline(Path path, Map<String, Result> results) throws IOException {
+    var lines = new ArrayList<String>();
+    lines.add("# program best-nanos median-allocated-bytes");
+    for (var entry : results.entrySet()) {
+      var result = entry.getValue();
+      if (result.status != Status.OK) continue;
+      lines.add(entry.getKey() + " " + result.nanos + " " + result.bytes);
+    }
+    Files.write(path, lines);
+  }
+
+  private static long median(long[] values) {
+    var sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private enum Status {
+    OK,
+    FAILED,
+    SKIPPED
+  }
+
+  private static class Result {
+    static final Result SKIPPED = new Result(Status.SKIPPED, 0, 0);
+
+    final Status status;
+    final long nanos;
+    final long bytes;
+
+    Result(Status status, long nanos, long bytes) {
+      this.status = status;
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+  }
+}
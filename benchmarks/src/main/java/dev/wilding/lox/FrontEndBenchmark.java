@@ -0,0 +1,60 @@
+package dev.wilding.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+  @Param({"tokens", "nested"})
+  public String input;
+
+  private String source;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    source = Workloads.source(input);
+    statements = parseSource();
+    resolve();
+  }
+
+  @Benchmark
+  public int scan() {
+    var scanner = new Scanner(source, new ErrorReporter(null));
+    var count = 0;
+    while (scanner.nextToken().getType() != TokenType.EOF) count++;
+    return count;
+  }
+
+  @Benchmark
+  public Object parse() {
+    return parseSource();
+  }
+
+  @Benchmark
+  public Object resolve() {
+    new Resolver(new ErrorReporter(null)).resolve(statements);
+    return statements;
+  }
+
+  private List<Stmt> parseSource() {
+    var reporter = new ErrorReporter(null);
+    return new Parser(new Scanner(source, reporter), reporter).parse();
+  }
+}
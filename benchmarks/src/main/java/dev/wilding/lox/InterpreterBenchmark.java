@@ -0,0 +1,46 @@
+package dev.wilding.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"TREE", "NODES", "CLOSURES", "VM"})
+  public String engine;
+
+  @Param({"fib", "loop", "closures", "strings"})
+  public String workload;
+
+  private Context context;
+  private Program program;
+
+  @Setup
+  public void setUp() {
+    var lox = new LoxEngine(LoxEngine.Backend.valueOf(engine), false);
+    program = lox.compile(Workloads.script(workload));
+    context = lox.newContext(new PrintStream(OutputStream.nullOutputStream()));
+    context.run(program);
+  }
+
+  @Benchmark
+  public void run() {
+    context.run(program);
+  }
+}
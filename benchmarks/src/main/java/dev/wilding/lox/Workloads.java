@@ -0,0 +1,63 @@
+package dev.wilding.lox;
+
+class Workloads {
+  private Workloads() {}
+
+  static String source(String name) {
+    switch (name) {
+      case "tokens":
+        return tokens(5_000);
+      case "nested":
+        return nested(200, 200);
+      default:
+        throw new IllegalArgumentException("Unknown input " + name + ".");
+    }
+  }
+
+  static String script(String name) {
+    switch (name) {
+      case "fib":
+        return "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+            + "print fib(20);";
+      case "loop":
+        return "var i = 0;\nvar sum = 0;\n"
+            + "while (i < 100000) { sum = sum + i; i = i + 1; }\n"
+            + "print sum;";
+      case "closures":
+        return "fun adder(n) { fun add(m) { return n + m; } return add; }\n"
+            + "fun counter() { var i = 0; fun count() { i = i + 1; return i; } return count; }\n"
+            + "var count = counter();\nvar sum = 0;\n"
+            + "for (var i = 0; i < 20000; i = i + 1) { sum = adder(i)(sum) + count(); }\n"
+            + "print sum;";
+      case "strings":
+        return "var s = \"\";\n"
+            + "for (var i = 0; i < 2000; i = i + 1) { s = s + \"x\"; }\n"
+            + "print s;";
+      default:
+        throw new IllegalArgumentException("Unknown workload " + name + ".");
+    }
+  }
+
+  private static String tokens(int lines) {
+    var source = new StringBuilder("var v0 = 0;\n");
+    for (var i = 1; i < lines; i++) {
+      source
+          .append("var v").append(i).append(" = (v").append(i - 1).append(" * 2 + ")
+          .append(i).append(".5) / 3 >= 1 and !nil or \"s").append(i).append("\" == \"s\";\n");
+    }
+    return source.toString();
+  }
+
+  private static String nested(int statements, int depth) {
+    var expression = new StringBuilder();
+    for (var i = 0; i < depth; i++) expression.append("(1 + -");
+    expression.append("2");
+    for (var i = 0; i < depth; i++) expression.append(")");
+
+    var source = new StringBuilder();
+    for (var i = 0; i < statements; i++) {
+      source.append("var n").append(i).append(" = ").append(expression).append(";\n");
+    }
+    return source.toString();
+  }
+}
@@ -0,0 +1,149 @@
+package dev.wilding.lox;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+class AllocationTracker {
+  private static final Kind[] KINDS = Kind.values();
+  private static final int TOP_SITES = 20;
+
+  private final SizeModel model;
+  private final long number;
+  private final long environment;
+  private final long closure;
+  private final long instance;
+  private final long string;
+  private long[] objects = new long[64 * KINDS.length];
+  private long[] bytes = new long[64 * KINDS.length];
+
+  AllocationTracker(SizeModel model) {
+    this.model = model;
+    this.number = model.object(0, Double.BYTES);
+    this.environment = model.object(3, 0);
+    this.closure = model.object(3, 1);
+    this.instance = model.object(3, 0);
+    this.string = model.object(1, Integer.BYTES + 1);
+  }
+
+  void number(Token operator, boolean unary) {
+    record(operator.getLine(), unary ? Kind.UNARY_NUMBER : Kind.BINARY_NUMBER, 1, number);
+  }
+
+  void string(Token operator, String value) {
+    var latin1 = value.chars().allMatch(c -> c < 256);
+    var array = model.array(value.length(), latin1 ? 1 : 2);
+    record(operator.getLine(), Kind.BINARY_STRING, 2, string + array);
+  }
+
+  void block(Stmt.Block block) {
+    record(block.getLine(), Kind.BLOCK_ENVIRONMENT, 2, frame(block.getSize()));
+  }
+
+  void closure(Stmt.Function function) {
+    record(function.getLine(), Kind.FUNCTION_CLOSURE, 1, closure);
+  }
+
+  void call(Token paren, LoxCallable callee, int arity) {
+    var line = paren.getLine();
+    if (arity > 3) record(line, Kind.CALL_ARGUMENTS, 1, model.references(arity));
+
+    if (callee instanceof LoxFunction) {
+      record(line, Kind.CALL_ENVIRONMENT, 2, frame(((LoxFunction) callee).frameSize()));
+    } else if (callee instanceof LoxClass) {
+      var klass = (LoxClass) callee;
+      var fields = model.references(klass.getInstanceSize());
+      record(line, Kind.CALL_INSTANCE, 2, instance + fields);
+      var initializer = klass.findMethod("init");
+      if (initializer != null) {
+        record(line, Kind.CALL_ENVIRONMENT, 2, frame(initializer.frameSize()));
+      }
+    }
+  }
+
+  void invoke(Token paren, LoxFunction method) {
+    record(paren.getLine(), Kind.INVOKE_ENVIRONMENT, 2, frame(method.frameSize()));
+  }
+
+  void tailCall(Token paren, LoxFunction function) {
+    record(paren.getLine(), Kind.CALL_ENVIRONMENT, 2, frame(function.frameSize()));
+  }
+
+  void report(PrintStream out) {
+    var totalObjects = Arrays.stream(objects).sum();
+    var totalBytes = Arrays.stream(bytes).sum();
+    out.printf(
+        "Allocations: %,d objects, %,d bytes with the %s size model"
+            + " (header %d, array header %d, reference %d, alignment %d).%n",
+        totalObjects,
+        totalBytes,
+        model.getName(),
+        model.getHeader(),
+        model.getArrayHeader(),
+        model.getReference(),
+        model.getAlignment());
+
+    var sites = new ArrayList<Integer>();
+    var kindObjects = new long[KINDS.length];
+    var kindBytes = new long[KINDS.length];
+    for (var i = 0; i < objects.length; i++) {
+      if (objects[i] == 0) continue;
+      sites.add(i);
+      kindObjects[i % KINDS.length] += objects[i];
+      kindBytes[i % KINDS.length] += bytes[i];
+    }
+
+    out.printf("%nBy line:%n%14s %12s %6s  %-8s %s%n", "bytes", "objects", "line", "node", "object");
+    sites.sort(Comparator.comparingLong((Integer site) -> -bytes[site]));
+    for (var site : sites.subList(0, Math.min(TOP_SITES, sites.size()))) {
+      var kind = KINDS[site % KINDS.length];
+      out.printf(
+          "%,14d %,12d %6d  %-8s %s%n",
+          bytes[site], objects[site], site / KINDS.length, kind.node, kind.object);
+    }
+
+    out.printf("%nBy node kind:%n%14s %12s  %-8s %s%n", "bytes", "objects", "node", "object");
+    var kinds = new ArrayList<>(Arrays.asList(KINDS));
+    kinds.sort(Comparator.comparingLong((Kind kind) -> -kindBytes[kind.ordinal()]));
+    for (var kind : kinds) {
+      if (kindObjects[kind.ordinal()] == 0) continue;
+      out.printf(
+          "%,14d %,12d  %-8s %s%n",
+          kindBytes[kind.ordinal()], kindObjects[kind.ordinal()], kind.node, kind.object);
+    }
+  }
+
+  private long frame(int size) {
+    return environment + model.references(size);
+  }
+
+  private void record(int line, Kind kind, int count, long size) {
+    var index = line * KINDS.length + kind.ordinal();
+    if (index >= objects.length) {
+      var length = Math.max(objects.length * 2, index + KINDS.length);
+      objects = Arrays.copyOf(objects, length);
+      bytes = Arrays.copyOf(bytes, length);
+    }
+    objects[index] += count;
+    bytes[index] += size;
+  }
+
+  @RequiredArgsConstructor
+  enum Kind {
+    BINARY_NUMBER("Binary", "Double"),
+    BINARY_STRING("Binary", "String"),
+    UNARY_NUMBER("Unary", "Double"),
+    BLOCK_ENVIRONMENT("Block", "Environment"),
+    CALL_ENVIRONMENT("Call", "Environment"),
+    CALL_ARGUMENTS("Call", "Object[]"),
+    CALL_INSTANCE("Call", "LoxInstance"),
+    INVOKE_ENVIRONMENT("Invoke", "Environment"),
+    FUNCTION_CLOSURE("Function", "LoxFunction");
+
+    private final String node;
+    private final String object;
+  }
+}
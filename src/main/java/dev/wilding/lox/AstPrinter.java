@@ -30,6 +30,11 @@ class AstPrinter implements Expr.Visitor<String> {
     return parenthesize("group", expr.getExpression());
   }
 
+  @Override
+  public String visitInvokeExpr(Expr.Invoke expr) {
+    return null;
+  }
+
   @Override
   public String visitLiteralExpr(Expr.Literal expr) {
     if (expr.getValue() == null) return "nil";
@@ -0,0 +1,385 @@
+package dev.wilding.lox;
+
+import java.util.List;
+
+class ClosureCompiler
+    implements Expr.Visitor<ClosureCompiler.Evaluator>, Stmt.Visitor<ClosureCompiler.Executor> {
+  private final Interpreter interpreter;
+  private final Environment globals;
+
+  ClosureCompiler(Interpreter interpreter, Environment globals) {
+    this.interpreter = interpreter;
+    this.globals = globals;
+  }
+
+  Executor compile(List<Stmt> statements) {
+    var body = compileAll(statements);
+    return frame -> {
+      for (var statement : body) {
+        statement.execute(frame);
+      }
+    };
+  }
+
+  @Override
+  public Evaluator visitAssignExpr(Expr.Assign expr) {
+    var value = compile(expr.getValue());
+    var depth = expr.getDepth();
+    var slot = expr.getSlot();
+
+    if (depth == Expr.GLOBAL) {
+      var name = expr.getName();
+      return frame -> {
+        var result = value.evaluate(frame);
+        globals.assign(name, result);
+        return result;
+      };
+    }
+
+    return frame -> {
+      var result = value.evaluate(frame);
+      frame.assignAt(depth, slot, result);
+      return result;
+    };
+  }
+
+  @Override
+  public Evaluator visitBinaryExpr(Expr.Binary expr) {
+    var operator = expr.getOperator();
+    var left = compile(expr.getLeft());
+    var right = compile(expr.getRight());
+
+    switch (operator.getType()) {
+      case BANG_EQUAL:
+        return frame -> !Interpreter.isEqual(left.evaluate(frame), right.evaluate(frame));
+      case EQUAL_EQUAL:
+        return frame -> Interpreter.isEqual(left.evaluate(frame), right.evaluate(frame));
+      case GREATER:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a > (double) b;
+        };
+      case GREATER_EQUAL:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a >= (double) b;
+        };
+      case LESS:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a < (double) b;
+        };
+      case LESS_EQUAL:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a <= (double) b;
+        };
+      case MINUS:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a - (double) b;
+        };
+      case PLUS:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          if (a instanceof Double && b instanceof Double) {
+            return (double) a + (double) b;
+          }
+
+          if (a instanceof String && b instanceof String) {
+            return (String) a + (String) b;
+          }
+
+          throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        };
+      case SLASH:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a / (double) b;
+        };
+      case STAR:
+        return frame -> {
+          var a = left.evaluate(frame);
+          var b = right.evaluate(frame);
+          checkNumberOperands(operator, a, b);
+          return (double) a * (double) b;
+        };
+    }
+
+    return frame -> null;
+  }
+
+  @Override
+  public Evaluator visitCallExpr(Expr.Call expr) {
+    var paren = expr.getParen();
+    var callee = compile(expr.getCallee());
+    var arguments = new Evaluator[expr.getArguments().size()];
+    for (var i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.getArguments().get(i));
+    }
+
+    return frame -> {
+      var function = callee.evaluate(frame);
+      var values = new Object[arguments.length];
+      for (var i = 0; i < arguments.length; i++) {
+        values[i] = arguments[i].evaluate(frame);
+      }
+      return call(paren, function, values);
+    };
+  }
+
+  @Override
+  public Evaluator visitGetExpr(Expr.Get expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Evaluator visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.getExpression());
+  }
+
+  @Override
+  public Evaluator visitInvokeExpr(Expr.Invoke expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Evaluator visitLiteralExpr(Expr.Literal expr) {
+    var value = expr.getValue();
+    return frame -> value;
+  }
+
+  @Override
+  public Evaluator visitLogicalExpr(Expr.Logical expr) {
+    var left = compile(expr.getLeft());
+    var right = compile(expr.getRight());
+
+    if (expr.getOperator().getType() == TokenType.OR) {
+      return frame -> {
+        var value = left.evaluate(frame);
+        if (Interpreter.isTruthy(value)) return value;
+        return right.evaluate(frame);
+      };
+    }
+
+    return frame -> {
+      var value = left.evaluate(frame);
+      if (!Interpreter.isTruthy(value)) return value;
+      return right.evaluate(frame);
+    };
+  }
+
+  @Override
+  public Evaluator visitSetExpr(Expr.Set expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Evaluator visitSuperExpr(Expr.Super expr) {
+    throw unsupported(expr.getKeyword());
+  }
+
+  @Override
+  public Evaluator visitThisExpr(Expr.This expr) {
+    throw unsupported(expr.getKeyword());
+  }
+
+  @Override
+  public Evaluator visitUnaryExpr(Expr.Unary expr) {
+    var operator = expr.getOperator();
+    var right = compile(expr.getRight());
+
+    if (operator.getType() == TokenType.MINUS) {
+      return frame -> {
+        var value = right.evaluate(frame);
+        if (!(value instanceof Double)) {
+          throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return -(double) value;
+      };
+    }
+
+    return frame -> !Interpreter.isTruthy(right.evaluate(frame));
+  }
+
+  @Override
+  public Evaluator visitVariableExpr(Expr.Variable expr) {
+    var depth = expr.getDepth();
+    var slot = expr.getSlot();
+
+    if (depth == Expr.GLOBAL) {
+      var name = expr.getName();
+      return frame -> globals.get(name);
+    }
+
+    return frame -> frame.getAt(depth, slot);
+  }
+
+  @Override
+  public Executor visitBlockStmt(Stmt.Block stmt) {
+    var size = stmt.getSize();
+    var body = compileAll(stmt.getStatements());
+
+    return frame -> {
+      var environment = new Environment(frame, size);
+      for (var statement : body) {
+        statement.execute(environment);
+      }
+    };
+  }
+
+  @Override
+  public Executor visitClassStmt(Stmt.Class stmt) {
+    throw unsupported(stmt.getName());
+  }
+
+  @Override
+  public Executor visitExpressionStmt(Stmt.Expression stmt) {
+    var expression = compile(stmt.getExpression());
+    return expression::evaluate;
+  }
+
+  @Override
+  public Executor visitFunctionStmt(Stmt.Function stmt) {
+    var name = stmt.getName().getLexeme();
+    var arity = stmt.getParams().size();
+    var size = stmt.getSize();
+    var body = compileAll(stmt.getBody());
+
+    Evaluator function = frame -> new ClosureFunction(name, arity, size, body, frame);
+    return define(name, stmt.getSlot(), function);
+  }
+
+  @Override
+  public Executor visitIfStmt(Stmt.If stmt) {
+    var condition = compile(stmt.getCondition());
+    var thenBranch = compile(stmt.getThenBranch());
+
+    if (stmt.getElseBranch() == null) {
+      return frame -> {
+        if (Interpreter.isTruthy(condition.evaluate(frame))) thenBranch.execute(frame);
+      };
+    }
+
+    var elseBranch = compile(stmt.getElseBranch());
+    return frame -> {
+      if (Interpreter.isTruthy(condition.evaluate(frame))) {
+        thenBranch.execute(frame);
+      } else {
+        elseBranch.execute(frame);
+      }
+    };
+  }
+
+  @Override
+  public Executor visitPrintStmt(Stmt.Print stmt) {
+    var expression = compile(stmt.getExpression());
+    return frame -> interpreter.print(expression.evaluate(frame));
+  }
+
+  @Override
+  public Executor visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.getValue() == null) {
+      return frame -> {
+        throw new Return(null);
+      };
+    }
+
+    var value = compile(stmt.getValue());
+    return frame -> {
+      throw new Return(value.evaluate(frame));
+    };
+  }
+
+  @Override
+  public Executor visitVarStmt(Stmt.Var stmt) {
+    var initializer = stmt.getInitializer();
+    Evaluator value = initializer != null ? compile(initializer) : frame -> null;
+    return define(stmt.getName().getLexeme(), stmt.getSlot(), value);
+  }
+
+  @Override
+  public Executor visitWhileStmt(Stmt.While stmt) {
+    var condition = compile(stmt.getCondition());
+    var body = compile(stmt.getBody());
+
+    return frame -> {
+      while (Interpreter.isTruthy(condition.evaluate(frame))) {
+        body.execute(frame);
+        interpreter.checkCancelled();
+      }
+    };
+  }
+
+  private Object call(Token paren, Object callee, Object[] arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    var function = (LoxCallable) callee;
+    if (arguments.length != function.arity()) {
+      var message =
+          String.format("Expected %s arguments but got %s.", function.arity(), arguments.length);
+      throw new RuntimeError(paren, message);
+    }
+
+    if (function instanceof ClosureFunction) {
+      return ((ClosureFunction) function).invoke(interpreter, arguments);
+    }
+    return function.call(interpreter, arguments);
+  }
+
+  private void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+
+  private Evaluator compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Executor compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Executor[] compileAll(List<Stmt> statements) {
+    var executors = new Executor[statements.size()];
+    for (var i = 0; i < executors.length; i++) {
+      executors[i] = compile(statements.get(i));
+    }
+    return executors;
+  }
+
+  private Executor define(String name, int slot, Evaluator value) {
+    if (slot == Expr.GLOBAL) {
+      return frame -> globals.define(name, value.evaluate(frame));
+    }
+    return frame -> frame.define(slot, value.evaluate(frame));
+  }
+
+  private RuntimeError unsupported(Token token) {
+    return new RuntimeError(token, "Classes require the tree-walking interpreter.");
+  }
+
+  interface Evaluator {
+    Object evaluate(Environment frame);
+  }
+
+  interface Executor {
+    void execute(Environment frame);
+  }
+}
@@ -0,0 +1,46 @@
+package dev.wilding.lox;
+
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+class ClosureFunction implements LoxCallable {
+  private final String name;
+  private final int arity;
+  private final int size;
+  private final ClosureCompiler.Executor[] body;
+  private final Environment closure;
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return invoke(interpreter, arguments.toArray());
+  }
+
+  Object invoke(Interpreter interpreter, Object[] arguments) {
+    interpreter.checkCancelled();
+    var environment = new Environment(closure, size);
+    for (var i = 0; i < arguments.length; i++) {
+      environment.define(i, arguments[i]);
+    }
+
+    try {
+      for (var statement : body) {
+        statement.execute(environment);
+      }
+    } catch (Return returnValue) {
+      return returnValue.getValue();
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<fn %s>", name);
+  }
+}
@@ -0,0 +1,506 @@
+package dev.wilding.lox;
+
+import dev.wilding.lox.vm.Chunk;
+import dev.wilding.lox.vm.CompiledFunction;
+import dev.wilding.lox.vm.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final int MAX_LOCALS = 256;
+  private static final int MAX_UPVALUES = 256;
+  private static final int MAX_JUMP = 65535;
+
+  private final ErrorReporter reporter;
+  private FunctionState current;
+  private int line = 1;
+
+  Compiler(ErrorReporter reporter) {
+    this.reporter = reporter;
+  }
+
+  CompiledFunction compile(List<Stmt> statements) {
+    current = new FunctionState(null, new CompiledFunction(null, 0));
+
+    for (var statement : statements) {
+      compile(statement);
+    }
+    emitReturn();
+
+    return current.function;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.getValue());
+    line = expr.getName().getLine();
+    emitVariable(expr.getName(), OpCode.SET_LOCAL, OpCode.SET_UPVALUE, OpCode.SET_GLOBAL);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.getLeft());
+    compile(expr.getRight());
+
+    line = expr.getOperator().getLine();
+    switch (expr.getOperator().getType()) {
+      case BANG_EQUAL:
+        emit(OpCode.EQUAL);
+        emit(OpCode.NOT);
+        break;
+      case EQUAL_EQUAL:
+        emit(OpCode.EQUAL);
+        break;
+      case GREATER:
+        emit(OpCode.GREATER);
+        break;
+      case GREATER_EQUAL:
+        emit(OpCode.GREATER_EQUAL);
+        break;
+      case LESS:
+        emit(OpCode.LESS);
+        break;
+      case LESS_EQUAL:
+        emit(OpCode.LESS_EQUAL);
+        break;
+      case MINUS:
+        emit(OpCode.SUBTRACT);
+        break;
+      case PLUS:
+        emit(OpCode.ADD);
+        break;
+      case SLASH:
+        emit(OpCode.DIVIDE);
+        break;
+      case STAR:
+        emit(OpCode.MULTIPLY);
+        break;
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compile(expr.getCallee());
+    for (var argument : expr.getArguments()) {
+      compile(argument);
+    }
+
+    line = expr.getParen().getLine();
+    emit(OpCode.CALL);
+    emit(expr.getArguments().size());
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    reporter.error(expr.getName(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.getExpression());
+    return null;
+  }
+
+  @Override
+  public Void visitInvokeExpr(Expr.Invoke expr) {
+    reporter.error(expr.getName(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    var value = expr.getValue();
+    if (value == null) {
+      emit(OpCode.NIL);
+    } else if (value instanceof Boolean) {
+      emit((boolean) value ? OpCode.TRUE : OpCode.FALSE);
+    } else {
+      emitConstant(value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.getLeft());
+
+    if (expr.getOperator().getType() == TokenType.OR) {
+      var elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      var endJump = emitJump(OpCode.JUMP);
+      patchJump(elseJump);
+      emit(OpCode.POP);
+      compile(expr.getRight());
+      patchJump(endJump);
+    } else {
+      var endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emit(OpCode.POP);
+      compile(expr.getRight());
+      patchJump(endJump);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    reporter.error(expr.getName(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    reporter.error(expr.getKeyword(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    reporter.error(expr.getKeyword(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.getRight());
+
+    line = expr.getOperator().getLine();
+    switch (expr.getOperator().getType()) {
+      case BANG:
+        emit(OpCode.NOT);
+        break;
+      case MINUS:
+        emit(OpCode.NEGATE);
+        break;
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    line = expr.getName().getLine();
+    emitVariable(expr.getName(), OpCode.GET_LOCAL, OpCode.GET_UPVALUE, OpCode.GET_GLOBAL);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (var statement : stmt.getStatements()) {
+      compile(statement);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    reporter.error(stmt.getName(), "Classes require the tree-walking interpreter.");
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.getExpression());
+    emit(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    var name = stmt.getName();
+    if (current.scopeDepth > 0) addLocal(name);
+
+    var function = new CompiledFunction(name.getLexeme(), stmt.getParams().size());
+    var state = new FunctionState(current, function);
+    current = state;
+    beginScope();
+    for (var param : stmt.getParams()) {
+      addLocal(param);
+    }
+    for (var statement : stmt.getBody()) {
+      compile(statement);
+    }
+    emitReturn();
+    current = state.enclosing;
+
+    function.setUpvalueCount(state.upvalues.size());
+    line = name.getLine();
+    emit(OpCode.CLOSURE);
+    emitShort(makeConstant(function));
+    for (var upvalue : state.upvalues) {
+      emit(upvalue.isLocal ? 1 : 0);
+      emit(upvalue.index);
+    }
+
+    if (current.scopeDepth == 0) {
+      emit(OpCode.DEFINE_GLOBAL);
+      emitShort(makeConstant(name.getLexeme()));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.getCondition());
+
+    var thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.getThenBranch());
+
+    var elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emit(OpCode.POP);
+
+    var elseBranch = stmt.getElseBranch();
+    if (elseBranch != null) compile(elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.getExpression());
+    emit(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.getKeyword().getLine();
+
+    var value = stmt.getValue();
+    if (value != null) {
+      compile(value);
+    } else {
+      emit(OpCode.NIL);
+    }
+    emit(OpCode.RETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    var initializer = stmt.getInitializer();
+    if (initializer != null) {
+      compile(initializer);
+    } else {
+      emit(OpCode.NIL);
+    }
+
+    var name = stmt.getName();
+    line = name.getLine();
+    if (current.scopeDepth > 0) {
+      addLocal(name);
+    } else {
+      emit(OpCode.DEFINE_GLOBAL);
+      emitShort(makeConstant(name.getLexeme()));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    var loopStart = chunk().count();
+    compile(stmt.getCondition());
+
+    var exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.getBody());
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  private void addLocal(Token name) {
+    if (current.locals.size() == MAX_LOCALS) {
+      reporter.error(name, "Too many local variables in function.");
+      return;
+    }
+
+    current.locals.add(new Local(name.getLexeme(), current.scopeDepth));
+  }
+
+  private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+    var upvalues = state.upvalues;
+    for (var i = 0; i < upvalues.size(); i++) {
+      var upvalue = upvalues.get(i);
+      if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+    }
+
+    if (upvalues.size() == MAX_UPVALUES) {
+      reporter.error(line, "Too many closure variables in function.");
+      return 0;
+    }
+
+    upvalues.add(new UpvalueRef(index, isLocal));
+    return upvalues.size() - 1;
+  }
+
+  private void beginScope() {
+    current.scopeDepth++;
+  }
+
+  private Chunk chunk() {
+    return current.function.getChunk();
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void emit(int value) {
+    chunk().write(value, line);
+  }
+
+  private void emitConstant(Object value) {
+    emit(OpCode.CONSTANT);
+    emitShort(makeConstant(value));
+  }
+
+  private int emitJump(int instruction) {
+    emit(instruction);
+    emitShort(0xffff);
+    return chunk().count() - 2;
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.LOOP);
+
+    var offset = chunk().count() - loopStart + 2;
+    if (offset > MAX_JUMP) reporter.error(line, "Loop body too large.");
+    emitShort(offset);
+  }
+
+  private void emitReturn() {
+    emit(OpCode.NIL);
+    emit(OpCode.RETURN);
+  }
+
+  private void emitShort(int value) {
+    emit((value >> 8) & 0xff);
+    emit(value & 0xff);
+  }
+
+  private void emitVariable(Token name, int local, int upvalue, int global) {
+    var slot = resolveLocal(current, name);
+    if (slot != -1) {
+      emit(local);
+      emit(slot);
+      return;
+    }
+
+    slot = resolveUpvalue(current, name);
+    if (slot != -1) {
+      emit(upvalue);
+      emit(slot);
+      return;
+    }
+
+    emit(global);
+    emitShort(makeConstant(name.getLexeme()));
+  }
+
+  private void endScope() {
+    current.scopeDepth--;
+
+    var locals = current.locals;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+      if (locals.remove(locals.size() - 1).isCaptured) {
+        emit(OpCode.CLOSE_UPVALUE);
+      } else {
+        emit(OpCode.POP);
+      }
+    }
+  }
+
+  private int makeConstant(Object value) {
+    var index = chunk().addConstant(value);
+    if (index >= Chunk.MAX_CONSTANTS) {
+      reporter.error(line, "Too many constants in one chunk.");
+      return 0;
+    }
+    return index;
+  }
+
+  private void patchJump(int offset) {
+    var jump = chunk().count() - offset - 2;
+    if (jump > MAX_JUMP) reporter.error(line, "Too much code to jump over.");
+
+    chunk().patch(offset, (jump >> 8) & 0xff);
+    chunk().patch(offset + 1, jump & 0xff);
+  }
+
+  private int resolveLocal(FunctionState state, Token name) {
+    var locals = state.locals;
+    for (var i = locals.size() - 1; i >= 0; i--) {
+      if (locals.get(i).name.equals(name.getLexeme())) return i;
+    }
+
+    return -1;
+  }
+
+  private int resolveUpvalue(FunctionState state, Token name) {
+    if (state.enclosing == null) return -1;
+
+    var local = resolveLocal(state.enclosing, name);
+    if (local != -1) {
+      state.enclosing.locals.get(local).isCaptured = true;
+      return addUpvalue(state, local, true);
+    }
+
+    var upvalue = resolveUpvalue(state.enclosing, name);
+    if (upvalue != -1) {
+      return addUpvalue(state, upvalue, false);
+    }
+
+    return -1;
+  }
+
+  private static class FunctionState {
+    final FunctionState enclosing;
+    final CompiledFunction function;
+    final List<Local> locals = new ArrayList<>();
+    final List<UpvalueRef> upvalues = new ArrayList<>();
+    int scopeDepth = 0;
+
+    FunctionState(FunctionState enclosing, CompiledFunction function) {
+      this.enclosing = enclosing;
+      this.function = function;
+      locals.add(new Local("", 0));
+    }
+  }
+
+  private static class Local {
+    final String name;
+    final int depth;
+    boolean isCaptured = false;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static class UpvalueRef {
+    final int index;
+    final boolean isLocal;
+
+    UpvalueRef(int index, boolean isLocal) {
+      this.index = index;
+      this.isLocal = isLocal;
+    }
+  }
+}
@@ -0,0 +1,7 @@
+package dev.wilding.lox;
+
+enum Completion {
+  NORMAL,
+  RETURN,
+  TAIL_CALL
+}
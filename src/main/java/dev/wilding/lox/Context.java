@@ -0,0 +1,132 @@
+package dev.wilding.lox;
+
+import dev.wilding.lox.vm.CompiledFunction;
+import dev.wilding.lox.vm.VM;
+import dev.wilding.lox.vm.VmError;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public final class Context {
+  private final LoxEngine.Backend backend;
+  @Getter(AccessLevel.PACKAGE)
+  private final ErrorReporter reporter;
+  @Getter(AccessLevel.PACKAGE)
+  private final Interpreter interpreter;
+  private final VM vm;
+  private final boolean collectStats;
+  private final Map<Program, List<Stmt>> decoded = new WeakHashMap<>();
+  private Stats stats;
+
+  Context(
+      LoxEngine.Backend backend,
+      boolean jit,
+      boolean collectStats,
+      PrintStream out,
+      PrintStream err) {
+    this.backend = backend;
+    this.collectStats = collectStats;
+    this.reporter = new ErrorReporter(err);
+    if (backend == LoxEngine.Backend.VM) {
+      this.interpreter = null;
+      this.vm = new VM(out);
+      return;
+    }
+
+    var mode = Interpreter.Mode.VISITOR;
+    if (backend == LoxEngine.Backend.NODES) mode = Interpreter.Mode.NODES;
+    if (backend == LoxEngine.Backend.CLOSURES) mode = Interpreter.Mode.CLOSURES;
+    this.interpreter = new Interpreter(mode, out, reporter);
+    if (jit) interpreter.enableJit(Jit.DEFAULT_THRESHOLD);
+    this.vm = null;
+  }
+
+  public void run(Program program) {
+    if (program.getBackend() != backend) {
+      throw new IllegalArgumentException(
+          "Program was compiled for " + program.getBackend() + ", not " + backend + ".");
+    }
+
+    reporter.reset();
+    if (collectStats) enableStats(LoxStats.open());
+    try {
+      measure(() -> interpret(program));
+    } catch (ExecutionCancelled cancelled) {
+      reporter.cancelled();
+      throw new LoxException(reporter.getErrors());
+    } finally {
+      resetCancelled();
+      if (collectStats) {
+        LoxStats.close(stats);
+        enableStats(null);
+      }
+    }
+    if (reporter.isHadRuntimeError()) throw new LoxException(reporter.getErrors());
+  }
+
+  // A cancel that arrives before a run starts still stops it, so the flag is cleared afterwards.
+  public void cancel() {
+    if (vm != null) {
+      vm.cancel();
+    } else {
+      interpreter.cancel();
+    }
+  }
+
+  void enableStats(Stats stats) {
+    this.stats = stats;
+    if (interpreter != null) interpreter.enableStats(stats);
+  }
+
+  void execute(List<Stmt> statements) {
+    if (vm == null) {
+      measure(() -> interpreter.interpret(statements));
+      return;
+    }
+
+    var compiler = new Compiler(reporter);
+    var script =
+        stats == null
+            ? compiler.compile(statements)
+            : stats.time(Stats.Phase.COMPILE, () -> compiler.compile(statements));
+    if (!reporter.isHadError()) measure(() -> interpret(script));
+  }
+
+  private void resetCancelled() {
+    if (vm != null) {
+      vm.resetCancelled();
+    } else {
+      interpreter.resetCancelled();
+    }
+  }
+
+  private void interpret(Program program) {
+    if (vm != null) {
+      interpret(program.getScript());
+    } else {
+      interpreter.interpret(decoded.computeIfAbsent(program, Program::statements));
+    }
+  }
+
+  private void measure(Runnable execution) {
+    if (stats == null) {
+      execution.run();
+      return;
+    }
+
+    stats.time(Stats.Phase.EXECUTE, execution);
+    if (reporter.isHadRuntimeError()) stats.runtimeErrors++;
+  }
+
+  private void interpret(CompiledFunction script) {
+    try {
+      vm.interpret(script);
+    } catch (VmError error) {
+      reporter.runtimeError(error.getMessage(), error.getLine());
+    }
+  }
+}
@@ -1,16 +1,24 @@
 package dev.wilding.lox;
 
-import lombok.AllArgsConstructor;
-import lombok.NoArgsConstructor;
-
 import java.util.HashMap;
 import java.util.Map;
 
-@AllArgsConstructor
-@NoArgsConstructor(force = true)
 class Environment {
   private final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  private final Object[] slots;
+  private final Map<String, Cell> values;
+
+  Environment() {
+    this.enclosing = null;
+    this.slots = null;
+    this.values = new HashMap<>();
+  }
+
+  Environment(Environment enclosing, int size) {
+    this.enclosing = enclosing;
+    this.slots = new Object[size];
+    this.values = null;
+  }
 
   Environment ancestor(int distance) {
     var environment = this;
@@ -23,41 +31,45 @@ class Environment {
 
   void assign(Token name, Object value) {
     var lexme = name.getLexeme();
-    if (values.containsKey(lexme)) {
-      values.put(lexme, value);
-      return;
-    }
-
-    if (enclosing != null) {
-      enclosing.assign(name, value);
+    var cell = values.get(lexme);
+    if (cell != null) {
+      cell.value = value;
       return;
     }
 
     throw new RuntimeError(name, String.format("Undefined variable '%s'.", lexme));
   }
 
-  void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.getLexeme(), value);
+  void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).slots[slot] = value;
+  }
+
+  Cell cell(String name) {
+    return values.get(name);
   }
 
   void define(String name, Object value) {
-    values.put(name, value);
+    values.computeIfAbsent(name, key -> new Cell()).value = value;
   }
 
-  Object get(Token name) {
-    var lexeme = name.getLexeme();
-    if (values.containsKey(lexeme)) {
-      return values.get(lexeme);
-    }
+  void define(int slot, Object value) {
+    slots[slot] = value;
+  }
 
-    if (enclosing != null) {
-      return enclosing.get(name);
+  Object get(Token name) {
+    var cell = values.get(name.getLexeme());
+    if (cell != null) {
+      return cell.value;
     }
 
     throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
   }
 
-  Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+  Object getAt(int distance, int slot) {
+    return ancestor(distance).slots[slot];
+  }
+
+  static final class Cell {
+    Object value;
   }
 }
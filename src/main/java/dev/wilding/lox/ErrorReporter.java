@@ -0,0 +1,60 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+class ErrorReporter {
+  private final PrintStream sink;
+  @Getter private final List<String> errors = new ArrayList<>();
+  @Getter private boolean hadError = false;
+  @Getter private boolean hadRuntimeError = false;
+
+  ErrorReporter(PrintStream sink) {
+    this.sink = sink;
+  }
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  void error(Token token, String message) {
+    if (token.getType() == TokenType.EOF) {
+      report(token.getLine(), " at end", message);
+    } else {
+      report(token.getLine(), " at '" + token.getLexeme() + "'", message);
+    }
+  }
+
+  void runtimeError(RuntimeError error) {
+    runtimeError(error.getMessage(), error.getToken().getLine());
+  }
+
+  void runtimeError(String message, int line) {
+    var error = message + "\n[line " + line + "]";
+    errors.add(error);
+    if (sink != null) sink.println(error);
+    hadRuntimeError = true;
+  }
+
+  void cancelled() {
+    errors.add(ExecutionCancelled.MESSAGE);
+    if (sink != null) sink.println(ExecutionCancelled.MESSAGE);
+    hadRuntimeError = true;
+  }
+
+  void reset() {
+    errors.clear();
+    hadError = false;
+    hadRuntimeError = false;
+  }
+
+  private void report(int line, String where, String message) {
+    var error = String.format("[line %s] Error%s: %s", line, where, message);
+    errors.add(error);
+    if (sink != null) sink.print(error);
+    hadError = true;
+  }
+}
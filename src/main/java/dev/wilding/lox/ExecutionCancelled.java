@@ -0,0 +1,9 @@
+package dev.wilding.lox;
+
+class ExecutionCancelled extends RuntimeException {
+  static final String MESSAGE = "Execution cancelled.";
+
+  ExecutionCancelled() {
+    super(MESSAGE, null, false, false);
+  }
+}
@@ -0,0 +1,25 @@
+package dev.wilding.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.wilding.lox.Execution")
+@Label("Lox Execution")
+@Category("Lox")
+class ExecutionEvent extends jdk.jfr.Event {
+  @Label("Statements")
+  long statements;
+
+  @Label("Calls")
+  long calls;
+
+  @Label("Max Call Depth")
+  long maxDepth;
+
+  @Label("Environments")
+  long environments;
+
+  @Label("Runtime Errors")
+  long runtimeErrors;
+}
@@ -1,10 +1,17 @@
 package dev.wilding.lox;
 
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 
 import java.util.List;
 
 abstract class Expr {
+  static final int GLOBAL = -1;
+
   abstract <R> R accept(Visitor<R> visitor);
 
   interface Visitor<R> {
@@ -18,6 +25,8 @@ abstract class Expr {
 
     R visitGroupingExpr(Grouping expr);
 
+    R visitInvokeExpr(Invoke expr);
+
     R visitLiteralExpr(Literal expr);
 
     R visitLogicalExpr(Logical expr);
@@ -34,10 +43,14 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Assign extends Expr {
     Token name;
     Expr value;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int depth = GLOBAL;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
@@ -57,11 +70,15 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Call extends Expr {
     Expr callee;
     Token paren;
     List<Expr> arguments;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude boolean tail;
+    @EqualsAndHashCode.Exclude @ToString.Exclude InlineCache cache = new InlineCache();
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
@@ -69,10 +86,13 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Get extends Expr {
     Expr object;
     Token name;
 
+    @EqualsAndHashCode.Exclude @ToString.Exclude PropertyCache cache = new PropertyCache();
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
@@ -89,6 +109,24 @@ abstract class Expr {
     }
   }
 
+  @Value
+  @RequiredArgsConstructor
+  static class Invoke extends Expr {
+    Expr object;
+    Token name;
+    Token paren;
+    List<Expr> arguments;
+
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude boolean tail;
+    @EqualsAndHashCode.Exclude @ToString.Exclude PropertyCache cache = new PropertyCache();
+    @EqualsAndHashCode.Exclude @ToString.Exclude InlineCache callCache = new InlineCache();
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInvokeExpr(this);
+    }
+  }
+
   @Value
   static class Literal extends Expr {
     Object value;
@@ -112,11 +150,14 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Set extends Expr {
     Expr object;
     Token name;
     Expr value;
 
+    @EqualsAndHashCode.Exclude @ToString.Exclude PropertyCache cache = new PropertyCache();
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
@@ -124,10 +165,13 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Super extends Expr {
     Token keyword;
     Token method;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int depth = GLOBAL;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitSuperExpr(this);
@@ -135,9 +179,13 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class This extends Expr {
     Token keyword;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int depth = GLOBAL;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
@@ -156,9 +204,13 @@ abstract class Expr {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Variable extends Expr {
     Token name;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int depth = GLOBAL;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
@@ -0,0 +1,31 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+class InlineCache {
+  static final int SIZE = 4;
+
+  private final LoxCallable[] targets = new LoxCallable[SIZE];
+  @Getter private int size = 0;
+  @Getter private long hits = 0;
+  @Getter private long misses = 0;
+
+  LoxCallable lookup(Object callee) {
+    for (var i = 0; i < size; i++) {
+      if (targets[i] == callee) {
+        hits++;
+        return targets[i];
+      }
+    }
+    misses++;
+    return null;
+  }
+
+  void record(LoxCallable target) {
+    if (size < SIZE) targets[size++] = target;
+  }
+
+  boolean isMegamorphic() {
+    return misses > size;
+  }
+}
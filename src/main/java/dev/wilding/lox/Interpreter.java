@@ -1,16 +1,40 @@
 package dev.wilding.lox;
 
-import java.util.ArrayList;
+import java.io.PrintStream;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
   private final Environment globals = new Environment();
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  private final Map<InlineCache, Integer> callSites = new LinkedHashMap<>();
+  private final Mode mode;
+  private final PrintStream out;
+  private final ErrorReporter reporter;
   private Environment environment = globals;
+  private Jit jit;
+  private Profiler profiler;
+  private AllocationTracker allocations;
+  private Stats stats;
+  private Object returnValue;
+  private LoxFunction tailCall;
+  private Environment tailFrame;
+  private Object[] tailArguments;
+  private volatile boolean cancelled;
 
   Interpreter() {
+    this(Mode.VISITOR);
+  }
+
+  Interpreter(Mode mode) {
+    this(mode, System.out, new ErrorReporter(System.err));
+  }
+
+  Interpreter(Mode mode, PrintStream out, ErrorReporter reporter) {
+    this.mode = mode;
+    this.out = out;
+    this.reporter = reporter;
     globals.define(
         "clock",
         new LoxCallable() {
@@ -31,14 +55,40 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
   }
 
-  void executeBlock(List<Stmt> statements, Environment environment) {
+  void enableJit(int threshold) {
+    jit = new Jit(threshold);
+  }
+
+  void enableProfiler(Profiler profiler) {
+    this.profiler = profiler;
+  }
+
+  Profiler getProfiler() {
+    return profiler;
+  }
+
+  void enableAllocationTracking(AllocationTracker allocations) {
+    this.allocations = allocations;
+  }
+
+  void enableStats(Stats stats) {
+    this.stats = stats;
+  }
+
+  Stats getStats() {
+    return stats;
+  }
+
+  Completion executeBlock(List<Stmt> statements, Environment environment) {
     var previous = this.environment;
     try {
       this.environment = environment;
 
       for (var statement : statements) {
-        execute(statement);
+        var completion = execute(statement);
+        if (completion != Completion.NORMAL) return completion;
       }
+      return Completion.NORMAL;
     } finally {
       this.environment = previous;
     }
@@ -46,25 +96,98 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   void interpret(List<Stmt> statements) {
     try {
+      if (mode == Mode.NODES) {
+        new NodeBuilder(this, globals).build(statements).execute(globals);
+        return;
+      }
+
+      if (mode == Mode.CLOSURES) {
+        new ClosureCompiler(this, globals).compile(statements).execute(globals);
+        return;
+      }
+
       for (Stmt statement : statements) {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reporter.runtimeError(error);
     }
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  void cancel() {
+    cancelled = true;
+  }
+
+  void resetCancelled() {
+    cancelled = false;
+  }
+
+  void checkCancelled() {
+    if (cancelled) throw new ExecutionCancelled();
+  }
+
+  void print(Object value) {
+    out.println(stringify(value));
+  }
+
+  Environment getGlobals() {
+    return globals;
+  }
+
+  LoxFunction takeTailCall() {
+    var function = tailCall;
+    tailCall = null;
+    return function;
+  }
+
+  Environment takeTailFrame() {
+    var frame = tailFrame;
+    tailFrame = null;
+    return frame;
+  }
+
+  void scheduleTailCall(LoxFunction function, Object[] arguments) {
+    tailCall = function;
+    tailArguments = arguments;
+  }
+
+  Object[] takeTailArguments() {
+    var arguments = tailArguments;
+    tailArguments = null;
+    return arguments;
+  }
+
+  Object takeReturnValue() {
+    var value = returnValue;
+    returnValue = null;
+    return value;
+  }
+
+  void reportCallSites(PrintStream out) {
+    for (var site : callSites.entrySet()) {
+      var cache = site.getKey();
+      out.printf(
+          "[line %s] call: %s hits, %s misses, %s targets%s%n",
+          site.getValue(),
+          cache.getHits(),
+          cache.getMisses(),
+          cache.getSize(),
+          cache.isMegamorphic() ? " (megamorphic)" : "");
+    }
+  }
+
+  JitCode profile(Stmt.Function declaration) {
+    if (jit == null) return null;
+    return jit.profile(declaration);
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     var value = evaluate(expr.getValue());
 
-    var distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.getName(), value);
+    var distance = expr.getDepth();
+    if (distance != Expr.GLOBAL) {
+      environment.assignAt(distance, expr.getSlot(), value);
     } else {
       globals.assign(expr.getName(), value);
     }
@@ -96,22 +219,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return (double) left <= (double) right;
       case MINUS:
         checkNumberOperands(expr.getOperator(), left, right);
+        if (allocations != null) allocations.number(expr.getOperator(), false);
         return (double) left - (double) right;
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
+          if (allocations != null) allocations.number(expr.getOperator(), false);
           return (double) left + (double) right;
         }
 
         if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
+          var value = (String) left + (String) right;
+          if (allocations != null) allocations.string(expr.getOperator(), value);
+          return value;
         }
 
         throw new RuntimeError(expr.getOperator(), "Operands must be two numbers or two strings.");
       case SLASH:
         checkNumberOperands(expr.getOperator(), left, right);
+        if (allocations != null) allocations.number(expr.getOperator(), false);
         return (double) left / (double) right;
       case STAR:
         checkNumberOperands(expr.getOperator(), left, right);
+        if (allocations != null) allocations.number(expr.getOperator(), false);
         return (double) left * (double) right;
     }
 
@@ -120,28 +249,50 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    var callee = evaluate(expr.getCallee());
-
-    var arguments = new ArrayList<Object>();
-    for (var argument : expr.getArguments()) {
-      arguments.add(evaluate(argument));
-    }
-
-    if (!(callee instanceof LoxCallable)) {
-      throw new RuntimeError(expr.getParen(), "Can only call functions and classes.");
-    }
+    return call(evaluate(expr.getCallee()), expr.getParen(), expr.getArguments(), expr.getCache());
+  }
 
-    LoxCallable function = (LoxCallable) callee;
-    if (arguments.size() != function.arity()) {
-      var message = String.format("Expected %s arguments but got %s.");
-      throw new RuntimeError(expr.getParen(), message);
+  private Object call(Object callee, Token paren, List<Expr> arguments, InlineCache cache) {
+    switch (arguments.size()) {
+      case 0:
+        return callable(callee, paren, 0, cache).call0(this);
+      case 1:
+        {
+          var a = evaluate(arguments.get(0));
+          return callable(callee, paren, 1, cache).call1(this, a);
+        }
+      case 2:
+        {
+          var a = evaluate(arguments.get(0));
+          var b = evaluate(arguments.get(1));
+          return callable(callee, paren, 2, cache).call2(this, a, b);
+        }
+      case 3:
+        {
+          var a = evaluate(arguments.get(0));
+          var b = evaluate(arguments.get(1));
+          var c = evaluate(arguments.get(2));
+          return callable(callee, paren, 3, cache).call3(this, a, b, c);
+        }
+      default:
+        {
+          var values = new Object[arguments.size()];
+          for (var i = 0; i < values.length; i++) {
+            values[i] = evaluate(arguments.get(i));
+          }
+          return callable(callee, paren, values.length, cache).call(this, values);
+        }
     }
-    return function.call(this, arguments);
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    return null;
+    var object = evaluate(expr.getObject());
+    if (object instanceof LoxInstance) {
+      return ((LoxInstance) object).get(expr.getName(), expr.getCache());
+    }
+
+    throw new RuntimeError(expr.getName(), "Only instances have properties.");
   }
 
   @Override
@@ -149,6 +300,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return evaluate(expr.getExpression());
   }
 
+  @Override
+  public Object visitInvokeExpr(Expr.Invoke expr) {
+    var instance = receiver(expr);
+    var method = instance.findMethod(expr.getName(), expr.getCache());
+    if (method == null) {
+      var callee = instance.get(expr.getName());
+      return call(callee, expr.getParen(), expr.getArguments(), expr.getCallCache());
+    }
+
+    var frame = method.frame(instance);
+    if (allocations != null) allocations.invoke(expr.getParen(), method);
+    return method.invoke(this, bindArguments(method, frame, expr.getArguments(), expr.getParen()));
+  }
+
   @Override
   public Object visitLiteralExpr(Expr.Literal expr) {
     return expr.getValue();
@@ -168,17 +333,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitSetExpr(Expr.Set expr) {
-    return null;
+    var object = evaluate(expr.getObject());
+
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(expr.getName(), "Only instances have fields.");
+    }
+
+    var value = evaluate(expr.getValue());
+    ((LoxInstance) object).set(expr.getName(), value, expr.getCache());
+    return value;
   }
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    return null;
+    var distance = expr.getDepth();
+    var superclass = (LoxClass) environment.getAt(distance, 0);
+    var object = (LoxInstance) environment.getAt(distance - 1, 0);
+
+    var method = superclass.findMethod(expr.getMethod().getLexeme());
+    if (method == null) {
+      var message = String.format("Undefined property '%s'.", expr.getMethod().getLexeme());
+      throw new RuntimeError(expr.getMethod(), message);
+    }
+
+    return method.bind(object);
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return null;
+    return environment.getAt(expr.getDepth(), expr.getSlot());
   }
 
   @Override
@@ -190,6 +373,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return !isTruthy(right);
       case MINUS:
         checkNumberOperand(expr.getOperator(), right);
+        if (allocations != null) allocations.number(expr.getOperator(), true);
         return -(double) right;
     }
 
@@ -198,56 +382,115 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.getName(), expr);
+    return lookUpVariable(expr.getName(), expr.getDepth(), expr.getSlot());
   }
 
   @Override
-  public Void visitClassStmt(Stmt.Class stmt) {
-    return null;
+  public Completion visitClassStmt(Stmt.Class stmt) {
+    LoxClass superclass = null;
+    if (stmt.getSuperclass() != null) {
+      var value = evaluate(stmt.getSuperclass());
+      if (!(value instanceof LoxClass)) {
+        throw new RuntimeError(stmt.getSuperclass().getName(), "Superclass must be a class.");
+      }
+      superclass = (LoxClass) value;
+    }
+
+    define(stmt.getName(), stmt.getSlot(), null);
+
+    var enclosing = environment;
+    if (superclass != null) {
+      environment = new Environment(environment, 1);
+      environment.define(0, superclass);
+    }
+
+    var methods = new HashMap<String, LoxFunction>();
+    for (var method : stmt.getMethods()) {
+      var name = method.getName().getLexeme();
+      methods.put(name, new LoxFunction(method, environment, name.equals("init"), null));
+    }
+
+    environment = enclosing;
+
+    var klass = new LoxClass(stmt.getName().getLexeme(), superclass, methods);
+    define(stmt.getName(), stmt.getSlot(), klass);
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitExpressionStmt(Stmt.Expression stmt) {
+  public Completion visitExpressionStmt(Stmt.Expression stmt) {
     evaluate(stmt.getExpression());
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitFunctionStmt(Stmt.Function stmt) {
-    var function = new LoxFunction(stmt, environment);
-    environment.define(stmt.getName().getLexeme(), function);
-    return null;
+  public Completion visitFunctionStmt(Stmt.Function stmt) {
+    var function = new LoxFunction(stmt, environment, false, null);
+    if (allocations != null) allocations.closure(stmt);
+    define(stmt.getName(), stmt.getSlot(), function);
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitIfStmt(Stmt.If stmt) {
+  public Completion visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.getCondition()))) {
-      execute(stmt.getThenBranch());
+      return execute(stmt.getThenBranch());
     } else if (stmt.getElseBranch() != null) {
-      execute(stmt.getElseBranch());
+      return execute(stmt.getElseBranch());
     }
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitPrintStmt(Stmt.Print stmt) {
-    var value = evaluate(stmt.getExpression());
-    System.out.println(stringify(value));
-    return null;
+  public Completion visitPrintStmt(Stmt.Print stmt) {
+    print(evaluate(stmt.getExpression()));
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitReturnStmt(Stmt.Return stmt) {
+  public Completion visitReturnStmt(Stmt.Return stmt) {
+    var expr = stmt.getValue();
+    if (expr instanceof Expr.Call && ((Expr.Call) expr).isTail()) {
+      var call = (Expr.Call) expr;
+      var callee = evaluate(call.getCallee());
+      if (callee instanceof LoxFunction && !((LoxFunction) callee).isCompiled(this)) {
+        var function = (LoxFunction) callee;
+        var frame = bindArguments(function, function.frame(), call.getArguments(), call.getParen());
+        if (allocations != null) allocations.tailCall(call.getParen(), function);
+        return scheduleTailCall(function, frame);
+      }
+
+      returnValue = call(callee, call.getParen(), call.getArguments(), call.getCache());
+      return Completion.RETURN;
+    }
+
+    if (expr instanceof Expr.Invoke && ((Expr.Invoke) expr).isTail()) {
+      var invoke = (Expr.Invoke) expr;
+      var instance = receiver(invoke);
+      var method = instance.findMethod(invoke.getName(), invoke.getCache());
+      if (method != null) {
+        var arguments = invoke.getArguments();
+        var frame = bindArguments(method, method.frame(instance), arguments, invoke.getParen());
+        if (allocations != null) allocations.invoke(invoke.getParen(), method);
+        return scheduleTailCall(method, frame);
+      }
+
+      var callee = instance.get(invoke.getName());
+      returnValue = call(callee, invoke.getParen(), invoke.getArguments(), invoke.getCallCache());
+      return Completion.RETURN;
+    }
+
     Object value = null;
-    if (stmt.getValue() != null) {
-      value = evaluate(stmt.getValue());
+    if (expr != null) {
+      value = evaluate(expr);
     }
 
-    throw new Return(value);
+    returnValue = value;
+    return Completion.RETURN;
   }
 
   @Override
-  public Void visitVarStmt(Stmt.Var stmt) {
+  public Completion visitVarStmt(Stmt.Var stmt) {
     Object value = null;
 
     var initializer = stmt.getInitializer();
@@ -255,16 +498,63 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       value = evaluate(initializer);
     }
 
-    environment.define(stmt.getName().getLexeme(), value);
-    return null;
+    define(stmt.getName(), stmt.getSlot(), value);
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.While stmt) {
+  public Completion visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.getCondition()))) {
-      execute(stmt.getBody());
+      var completion = execute(stmt.getBody());
+      if (completion != Completion.NORMAL) return completion;
+      checkCancelled();
     }
-    return null;
+    return Completion.NORMAL;
+  }
+
+  private Environment bindArguments(
+      LoxFunction function, Environment frame, List<Expr> arguments, Token paren) {
+    if (arguments.size() != function.arity()) {
+      for (var argument : arguments) {
+        evaluate(argument);
+      }
+      throw arityError(function, arguments.size(), paren);
+    }
+
+    for (var i = 0; i < arguments.size(); i++) {
+      frame.define(function.parameterSlot(i), evaluate(arguments.get(i)));
+    }
+    return frame;
+  }
+
+  private LoxCallable callable(Object callee, Token paren, int argumentCount, InlineCache cache) {
+    var function = lookUpCallable(callee, paren, argumentCount, cache);
+    if (allocations != null) allocations.call(paren, function, argumentCount);
+    return function;
+  }
+
+  private LoxCallable lookUpCallable(
+      Object callee, Token paren, int argumentCount, InlineCache cache) {
+    var cached = cache.lookup(callee);
+    if (cached != null) return cached;
+
+    if (cache.getMisses() == 1) callSites.put(cache, paren.getLine());
+
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    var function = (LoxCallable) callee;
+    if (argumentCount != function.arity()) throw arityError(function, argumentCount, paren);
+
+    cache.record(function);
+    return function;
+  }
+
+  private RuntimeError arityError(LoxCallable function, int argumentCount, Token paren) {
+    var message =
+        String.format("Expected %s arguments but got %s.", function.arity(), argumentCount);
+    return new RuntimeError(paren, message);
   }
 
   private void checkNumberOperand(Token operator, Object operand) {
@@ -278,37 +568,59 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
+  private void define(Token name, int slot, Object value) {
+    if (slot == Expr.GLOBAL) {
+      globals.define(name.getLexeme(), value);
+    } else {
+      environment.define(slot, value);
+    }
+  }
+
   private Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  private Completion execute(Stmt stmt) {
+    if (profiler != null) profiler.line(stmt.getLine());
+    if (stats != null) stats.statements++;
+    return stmt.accept(this);
   }
 
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null && b == null) return true;
     if (a == null) return false;
 
     return a.equals(b);
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean) object;
     return true;
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    var distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.getLexeme());
+  private Completion scheduleTailCall(LoxFunction function, Environment frame) {
+    tailCall = function;
+    tailFrame = frame;
+    return Completion.TAIL_CALL;
+  }
+
+  private LoxInstance receiver(Expr.Invoke expr) {
+    var object = evaluate(expr.getObject());
+    if (object instanceof LoxInstance) return (LoxInstance) object;
+
+    throw new RuntimeError(expr.getName(), "Only instances have properties.");
+  }
+
+  private Object lookUpVariable(Token name, int distance, int slot) {
+    if (distance != Expr.GLOBAL) {
+      return environment.getAt(distance, slot);
     } else {
       return globals.get(name);
     }
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
 
     if (object instanceof Double) {
@@ -323,8 +635,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   @Override
-  public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.getStatements(), new Environment(environment));
-    return null;
+  public Completion visitBlockStmt(Stmt.Block stmt) {
+    if (allocations != null) allocations.block(stmt);
+    if (stats != null) stats.environments++;
+    return executeBlock(stmt.getStatements(), new Environment(environment, stmt.getSize()));
+  }
+
+  enum Mode {
+    VISITOR,
+    NODES,
+    CLOSURES
   }
 }
@@ -0,0 +1,583 @@
+package dev.wilding.lox;
+
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.AASTORE;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ANEWARRAY;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+import static org.objectweb.asm.Opcodes.SWAP;
+import static org.objectweb.asm.Opcodes.V11;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+class Jit {
+  static final int DEFAULT_THRESHOLD = 1000;
+
+  private static final String CODE = "dev/wilding/lox/JitCode";
+  private static final String ENVIRONMENT = "dev/wilding/lox/Environment";
+  private static final String INTERPRETER = "dev/wilding/lox/Interpreter";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String TOKEN = "dev/wilding/lox/Token";
+  private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+  private static final String ENVIRONMENT_TYPE = "Ldev/wilding/lox/Environment;";
+  private static final String TOKEN_TYPE = "Ldev/wilding/lox/Token;";
+  private static final String BINARY = "(" + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")";
+  private static final String INVOKE =
+      "(Ldev/wilding/lox/Interpreter;" + ENVIRONMENT_TYPE + "[" + OBJECT_TYPE + ")" + OBJECT_TYPE;
+  private static final AtomicInteger classes = new AtomicInteger();
+  private static final MethodHandle DEFINE = definer();
+
+  private final int threshold;
+
+  Jit(int threshold) {
+    this.threshold = threshold;
+  }
+
+  JitCode profile(Stmt.Function declaration) {
+    if (declaration.countCall() != threshold) return null;
+
+    var shared = declaration.getSharedCode();
+    var code =
+        shared == null
+            ? compile(declaration)
+            : shared.computeIfAbsent(declaration.getId(), id -> compile(declaration));
+    declaration.setCompiled(code);
+    return code;
+  }
+
+  JitCode compile(Stmt.Function declaration) {
+    byte[] bytes;
+    var generator = new Generator();
+    var name =
+        String.format(
+            "%s$%s$%d", CODE, declaration.getName().getLexeme(), classes.incrementAndGet());
+    try {
+      bytes = generator.generate(name, declaration);
+    } catch (Unsupported unsupported) {
+      return null;
+    }
+
+    try {
+      var type = (Class<?>) DEFINE.invokeExact(bytes);
+      var constructor = type.getDeclaredConstructor(Object[].class);
+      return (JitCode) constructor.newInstance((Object) generator.constants.toArray());
+    } catch (Throwable error) {
+      throw new IllegalStateException("Cannot load compiled function.", error);
+    }
+  }
+
+  // Hidden classes (JDK 15+) and VM-anonymous classes (up to JDK 16) are unloaded once their
+  // code is unreachable; classes defined into the application class loader never are.
+  private static MethodHandle definer() {
+    var lookup = MethodHandles.lookup();
+    var type = MethodType.methodType(Class.class, byte[].class);
+    try {
+      var option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      var options = Array.newInstance(option, 0);
+      var hidden =
+          lookup.unreflect(
+              MethodHandles.Lookup.class.getMethod(
+                  "defineHiddenClass", byte[].class, boolean.class, options.getClass()));
+      var lookupClass =
+          lookup.findVirtual(
+              MethodHandles.Lookup.class, "lookupClass", MethodType.methodType(Class.class));
+      var define = MethodHandles.insertArguments(hidden, 2, false, options).bindTo(lookup);
+      return MethodHandles.filterReturnValue(define, lookupClass).asType(type);
+    } catch (ReflectiveOperationException hiddenClassesUnavailable) {
+      try {
+        var unsafeType = Class.forName("sun.misc.Unsafe");
+        var field = unsafeType.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        var anonymous =
+            lookup.findVirtual(
+                unsafeType,
+                "defineAnonymousClass",
+                MethodType.methodType(Class.class, Class.class, byte[].class, Object[].class));
+        var define = MethodHandles.insertArguments(anonymous, 0, field.get(null), Jit.class);
+        return MethodHandles.insertArguments(define, 1, (Object) null).asType(type);
+      } catch (ReflectiveOperationException error) {
+        throw new IllegalStateException("Cannot define unloadable classes.", error);
+      }
+    }
+  }
+
+  private static class Generator implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int CLOSURE_LOCAL = 2;
+    private static final int ARGUMENTS_LOCAL = 3;
+
+    final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final List<int[]> scopes = new ArrayList<>();
+    private MethodVisitor method;
+    private int nextLocal = ARGUMENTS_LOCAL + 1;
+
+    byte[] generate(String name, Stmt.Function declaration) {
+      var writer =
+          new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+              return OBJECT;
+            }
+          };
+      writer.visit(V11, ACC_FINAL | ACC_SUPER, name, null, CODE, null);
+
+      var constructor =
+          writer.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+      constructor.visitCode();
+      constructor.visitVarInsn(ALOAD, 0);
+      constructor.visitVarInsn(ALOAD, 1);
+      constructor.visitMethodInsn(INVOKESPECIAL, CODE, "<init>", "([Ljava/lang/Object;)V", false);
+      constructor.visitInsn(RETURN);
+      constructor.visitMaxs(0, 0);
+      constructor.visitEnd();
+
+      method = writer.visitMethod(0, "invoke", INVOKE, null, null);
+      method.visitCode();
+      method.visitVarInsn(ALOAD, INTERPRETER_LOCAL);
+      invokeStatic("checkCancelled", "(L" + INTERPRETER + ";)V");
+
+      var scope = beginScope(declaration.getSize());
+      for (var i = 0; i < declaration.getParams().size(); i++) {
+        method.visitVarInsn(ALOAD, ARGUMENTS_LOCAL);
+        pushInt(i);
+        method.visitInsn(AALOAD);
+        scope[i] = nextLocal++;
+        method.visitVarInsn(ASTORE, scope[i]);
+      }
+      for (var statement : declaration.getBody()) {
+        generate(statement);
+      }
+      method.visitInsn(ACONST_NULL);
+      method.visitInsn(ARETURN);
+
+      method.visitMaxs(0, 0);
+      method.visitEnd();
+      writer.visitEnd();
+      return writer.toByteArray();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      generate(expr.getValue());
+
+      var depth = expr.getDepth();
+      if (depth == Expr.GLOBAL) {
+        loadGlobals();
+        method.visitInsn(SWAP);
+        loadConstant(expr.getName(), TOKEN);
+        method.visitInsn(SWAP);
+        invokeStatic(
+            "assignGlobal",
+            "(" + ENVIRONMENT_TYPE + TOKEN_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+      } else if (depth < scopes.size()) {
+        method.visitInsn(DUP);
+        method.visitVarInsn(ASTORE, local(depth, expr.getSlot()));
+      } else {
+        var value = nextLocal++;
+        method.visitVarInsn(ASTORE, value);
+        method.visitVarInsn(ALOAD, CLOSURE_LOCAL);
+        pushInt(depth - scopes.size());
+        pushInt(expr.getSlot());
+        method.visitVarInsn(ALOAD, value);
+        invokeStatic(
+            "assignAt", "(Ldev/wilding/lox/Environment;IILjava/lang/Object;)Ljava/lang/Object;");
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      switch (expr.getOperator().getType()) {
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+          generateCondition(expr);
+          method.visitMethodInsn(
+              INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+          return null;
+      }
+
+      generate(expr.getLeft());
+      generate(expr.getRight());
+
+      switch (expr.getOperator().getType()) {
+        case BANG_EQUAL:
+          invokeStatic("notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+          break;
+        case EQUAL_EQUAL:
+          invokeStatic("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+          break;
+        case MINUS:
+          invokeArithmetic("subtract", expr.getOperator());
+          break;
+        case PLUS:
+          invokeArithmetic("add", expr.getOperator());
+          break;
+        case SLASH:
+          invokeArithmetic("divide", expr.getOperator());
+          break;
+        case STAR:
+          invokeArithmetic("multiply", expr.getOperator());
+          break;
+        default:
+          throw new Unsupported();
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      generateCall(expr, "call");
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      generate(expr.getExpression());
+      return null;
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      var value = expr.getValue();
+      if (value == null) {
+        method.visitInsn(ACONST_NULL);
+      } else if (value instanceof Boolean) {
+        var field = (boolean) value ? "TRUE" : "FALSE";
+        method.visitFieldInsn(GETSTATIC, "java/lang/Boolean", field, "Ljava/lang/Boolean;");
+      } else if (value instanceof String) {
+        method.visitLdcInsn(value);
+      } else {
+        loadConstant(value, "java/lang/Double");
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      var end = new Label();
+      generate(expr.getLeft());
+      method.visitInsn(DUP);
+      invokeStatic("isTruthy", "(Ljava/lang/Object;)Z");
+      method.visitJumpInsn(expr.getOperator().getType() == TokenType.OR ? IFNE : IFEQ, end);
+      method.visitInsn(POP);
+      generate(expr.getRight());
+      method.visitLabel(end);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      generate(expr.getRight());
+
+      if (expr.getOperator().getType() == TokenType.MINUS) {
+        loadConstant(expr.getOperator(), TOKEN);
+        invokeStatic("negate", "(Ljava/lang/Object;Ldev/wilding/lox/Token;)Ljava/lang/Object;");
+      } else {
+        invokeStatic("not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      var depth = expr.getDepth();
+      if (depth == Expr.GLOBAL) {
+        loadGlobals();
+        loadConstant(expr.getName(), TOKEN);
+        method.visitMethodInsn(
+            INVOKEVIRTUAL,
+            ENVIRONMENT,
+            "get",
+            "(Ldev/wilding/lox/Token;)Ljava/lang/Object;",
+            false);
+      } else if (depth < scopes.size()) {
+        method.visitVarInsn(ALOAD, local(depth, expr.getSlot()));
+      } else {
+        method.visitVarInsn(ALOAD, CLOSURE_LOCAL);
+        pushInt(depth - scopes.size());
+        pushInt(expr.getSlot());
+        method.visitMethodInsn(
+            INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;", false);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      beginScope(stmt.getSize());
+      for (var statement : stmt.getStatements()) {
+        generate(statement);
+      }
+      scopes.remove(scopes.size() - 1);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      generate(stmt.getExpression());
+      method.visitInsn(POP);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      var elseLabel = new Label();
+      var end = new Label();
+
+      generateCondition(stmt.getCondition());
+      method.visitJumpInsn(IFEQ, elseLabel);
+      generate(stmt.getThenBranch());
+      method.visitJumpInsn(GOTO, end);
+      method.visitLabel(elseLabel);
+      var elseBranch = stmt.getElseBranch();
+      if (elseBranch != null) generate(elseBranch);
+      method.visitLabel(end);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      generate(stmt.getExpression());
+      method.visitVarInsn(ALOAD, INTERPRETER_LOCAL);
+      invokeStatic("print", "(" + OBJECT_TYPE + "L" + INTERPRETER + ";)V");
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      var value = stmt.getValue();
+      if (value instanceof Expr.Call && ((Expr.Call) value).isTail()) {
+        generateCall((Expr.Call) value, "tailCall");
+      } else if (value != null) {
+        generate(value);
+      } else {
+        method.visitInsn(ACONST_NULL);
+      }
+      method.visitInsn(ARETURN);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      var initializer = stmt.getInitializer();
+      if (initializer != null) {
+        generate(initializer);
+      } else {
+        method.visitInsn(ACONST_NULL);
+      }
+
+      var local = nextLocal++;
+      scopes.get(scopes.size() - 1)[stmt.getSlot()] = local;
+      method.visitVarInsn(ASTORE, local);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      var start = new Label();
+      var end = new Label();
+
+      method.visitLabel(start);
+      generateCondition(stmt.getCondition());
+      method.visitJumpInsn(IFEQ, end);
+      generate(stmt.getBody());
+      method.visitVarInsn(ALOAD, INTERPRETER_LOCAL);
+      invokeStatic("checkCancelled", "(L" + INTERPRETER + ";)V");
+      method.visitJumpInsn(GOTO, start);
+      method.visitLabel(end);
+      return null;
+    }
+
+    private int[] beginScope(int size) {
+      var scope = new int[size];
+      scopes.add(scope);
+      return scope;
+    }
+
+    private void generate(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void generate(Stmt stmt) {
+      stmt.accept(this);
+    }
+
+    private void generateCall(Expr.Call expr, String helper) {
+      generate(expr.getCallee());
+
+      var arguments = expr.getArguments();
+      pushInt(arguments.size());
+      method.visitTypeInsn(ANEWARRAY, OBJECT);
+      for (var i = 0; i < arguments.size(); i++) {
+        method.visitInsn(DUP);
+        pushInt(i);
+        generate(arguments.get(i));
+        method.visitInsn(AASTORE);
+      }
+
+      method.visitVarInsn(ALOAD, INTERPRETER_LOCAL);
+      loadConstant(expr.getParen(), TOKEN);
+      invokeStatic(
+          helper,
+          "(" + OBJECT_TYPE + "[" + OBJECT_TYPE + "Ldev/wilding/lox/Interpreter;" + TOKEN_TYPE + ")"
+              + OBJECT_TYPE);
+    }
+
+    private void generateCondition(Expr condition) {
+      if (condition instanceof Expr.Binary) {
+        var binary = (Expr.Binary) condition;
+        String comparison = null;
+        switch (binary.getOperator().getType()) {
+          case GREATER:
+            comparison = "greater";
+            break;
+          case GREATER_EQUAL:
+            comparison = "greaterEqual";
+            break;
+          case LESS:
+            comparison = "less";
+            break;
+          case LESS_EQUAL:
+            comparison = "lessEqual";
+            break;
+        }
+
+        if (comparison != null) {
+          generate(binary.getLeft());
+          generate(binary.getRight());
+          loadConstant(binary.getOperator(), TOKEN);
+          invokeStatic(comparison, BINARY + "Z");
+          return;
+        }
+      }
+
+      generate(condition);
+      invokeStatic("isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void invokeArithmetic(String name, Token operator) {
+      loadConstant(operator, TOKEN);
+      invokeStatic(name, BINARY + "Ljava/lang/Object;");
+    }
+
+    private void invokeStatic(String name, String descriptor) {
+      method.visitMethodInsn(INVOKESTATIC, CODE, name, descriptor, false);
+    }
+
+    private void loadConstant(Object value, String type) {
+      var index = constantIndexes.get(value);
+      if (index == null) {
+        index = constants.size();
+        constantIndexes.put(value, index);
+        constants.add(value);
+      }
+
+      method.visitVarInsn(ALOAD, 0);
+      // An anonymous class cannot be looked up by name, so the verifier must not have to prove
+      // it is a JitCode.
+      method.visitTypeInsn(CHECKCAST, CODE);
+      method.visitFieldInsn(GETFIELD, CODE, "constants", "[Ljava/lang/Object;");
+      pushInt(index);
+      method.visitInsn(AALOAD);
+      method.visitTypeInsn(CHECKCAST, type);
+    }
+
+    private void loadGlobals() {
+      method.visitVarInsn(ALOAD, INTERPRETER_LOCAL);
+      method.visitMethodInsn(
+          INVOKEVIRTUAL, INTERPRETER, "getGlobals", "()Ldev/wilding/lox/Environment;", false);
+    }
+
+    private int local(int depth, int slot) {
+      return scopes.get(scopes.size() - 1 - depth)[slot];
+    }
+
+    private void pushInt(int value) {
+      if (value <= 5) {
+        method.visitInsn(ICONST_0 + value);
+      } else if (value <= Byte.MAX_VALUE) {
+        method.visitIntInsn(BIPUSH, value);
+      } else if (value <= Short.MAX_VALUE) {
+        method.visitIntInsn(SIPUSH, value);
+      } else {
+        method.visitLdcInsn(value);
+      }
+    }
+  }
+
+  private static class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package dev.wilding.lox;
+
+abstract class JitCode {
+  // Returned by compiled code that left a tail call scheduled on the interpreter.
+  static final Object TAIL_CALL = new Object();
+
+  final Object[] constants;
+
+  JitCode(Object[] constants) {
+    this.constants = constants;
+  }
+
+  abstract Object invoke(Interpreter interpreter, Environment closure, Object[] arguments);
+
+  static Object add(Object left, Object right, Token operator) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+
+    if (left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+
+    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+  }
+
+  static Object assignAt(Environment closure, int distance, int slot, Object value) {
+    closure.assignAt(distance, slot, value);
+    return value;
+  }
+
+  static Object assignGlobal(Environment globals, Token name, Object value) {
+    globals.assign(name, value);
+    return value;
+  }
+
+  static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    var function = (LoxCallable) callee;
+    checkArity(function, arguments, paren);
+    return function.call(interpreter, arguments);
+  }
+
+  static Object divide(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left / (double) right;
+  }
+
+  static Object equal(Object left, Object right) {
+    return Interpreter.isEqual(left, right);
+  }
+
+  static boolean greater(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left > (double) right;
+  }
+
+  static boolean greaterEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left >= (double) right;
+  }
+
+  static boolean isTruthy(Object object) {
+    return Interpreter.isTruthy(object);
+  }
+
+  static boolean less(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left < (double) right;
+  }
+
+  static boolean lessEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left <= (double) right;
+  }
+
+  static Object multiply(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left * (double) right;
+  }
+
+  static Object negate(Object right, Token operator) {
+    if (!(right instanceof Double)) {
+      throw new RuntimeError(operator, "Operand must be a number.");
+    }
+    return -(double) right;
+  }
+
+  static Object not(Object right) {
+    return !Interpreter.isTruthy(right);
+  }
+
+  static Object notEqual(Object left, Object right) {
+    return !Interpreter.isEqual(left, right);
+  }
+
+  static void checkCancelled(Interpreter interpreter) {
+    interpreter.checkCancelled();
+  }
+
+  static void print(Object value, Interpreter interpreter) {
+    interpreter.print(value);
+  }
+
+  static Object subtract(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left - (double) right;
+  }
+
+  static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+    if (!(callee instanceof LoxFunction)) return call(callee, arguments, interpreter, paren);
+
+    var function = (LoxFunction) callee;
+    checkArity(function, arguments, paren);
+    interpreter.scheduleTailCall(function, arguments);
+    return TAIL_CALL;
+  }
+
+  private static void checkArity(LoxCallable function, Object[] arguments, Token paren) {
+    if (arguments.length == function.arity()) return;
+
+    var message =
+        String.format("Expected %s arguments but got %s.", function.arity(), arguments.length);
+    throw new RuntimeError(paren, message);
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+}
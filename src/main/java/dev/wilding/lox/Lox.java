@@ -3,80 +3,318 @@ package dev.wilding.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  private final Context context;
+  private final ErrorReporter reporter;
+  private final boolean callStats;
+  private final boolean stream;
+  private final boolean cache;
+  private final Profiler profiler;
+  private final Path collapsed;
+  private final AllocationTracker allocations;
+  private final Stats stats;
+
+  private Lox(
+      LoxEngine engine,
+      boolean callStats,
+      boolean stream,
+      boolean cache,
+      Profiler profiler,
+      Path collapsed,
+      AllocationTracker allocations,
+      Stats stats) {
+    this.context = engine.newContext(System.out, System.err);
+    this.reporter = context.getReporter();
+    this.callStats = callStats;
+    this.stream = stream;
+    this.cache = cache;
+    this.profiler = profiler;
+    this.collapsed = collapsed;
+    this.allocations = allocations;
+    this.stats = stats;
+    if (profiler != null) context.getInterpreter().enableProfiler(profiler);
+    if (allocations != null) context.getInterpreter().enableAllocationTracking(allocations);
+    if (stats != null) context.enableStats(stats);
+  }
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    String script = null;
+    var backend = LoxEngine.Backend.TREE;
+    var jit = false;
+    var callStats = false;
+    var stream = false;
+    var cache = false;
+    var port = -1;
+    String batch = null;
+    var workers = 1;
+    var maxInFlight = Runtime.getRuntime().availableProcessors();
+    var maxQueued = 64;
+    var timeoutMillis = 10_000L;
+    var profile = false;
+    var intervalMicros = 1_000L;
+    Path collapsed = null;
+    var trackAllocations = false;
+    var sizeModel = SizeModel.COMPRESSED;
+    var stats = false;
+    for (var i = 0; i < args.length && backend != null; i++) {
+      var arg = args[i];
+      if (arg.startsWith("--engine=")) {
+        backend = LoxEngine.Backend.fromName(arg.substring("--engine=".length()));
+      } else if (arg.equals("--jit")) {
+        jit = true;
+      } else if (arg.equals("--call-stats")) {
+        callStats = true;
+      } else if (arg.equals("--stream")) {
+        stream = true;
+      } else if (arg.equals("--cache")) {
+        cache = true;
+      } else if (arg.equals("--serve") && i + 1 < args.length) {
+        port = Integer.parseInt(args[++i]);
+      } else if (arg.equals("--batch") && i + 1 < args.length) {
+        batch = args[++i];
+      } else if (arg.startsWith("--workers=")) {
+        workers = Integer.parseInt(arg.substring("--workers=".length()));
+      } else if (arg.startsWith("--max-in-flight=")) {
+        maxInFlight = Integer.parseInt(arg.substring("--max-in-flight=".length()));
+      } else if (arg.startsWith("--max-queued=")) {
+        maxQueued = Integer.parseInt(arg.substring("--max-queued=".length()));
+      } else if (arg.startsWith("--timeout-ms=")) {
+        timeoutMillis = Long.parseLong(arg.substring("--timeout-ms=".length()));
+      } else if (arg.equals("--profile")) {
+        profile = true;
+      } else if (arg.startsWith("--profile-interval-us=")) {
+        intervalMicros = Long.parseLong(arg.substring("--profile-interval-us=".length()));
+      } else if (arg.startsWith("--profile-collapsed=")) {
+        collapsed = Paths.get(arg.substring("--profile-collapsed=".length()));
+      } else if (arg.equals("--allocations")) {
+        trackAllocations = true;
+      } else if (arg.startsWith("--size-model=")) {
+        sizeModel = SizeModel.fromName(arg.substring("--size-model=".length()));
+        if (sizeModel == null) backend = null;
+      } else if (arg.equals("--stats")) {
+        stats = true;
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        backend = null;
+      }
+    }
+
+    var modes = (script != null ? 1 : 0) + (port >= 0 ? 1 : 0) + (batch != null ? 1 : 0);
+    var profiled = profile || collapsed != null;
+    var instrumented = profiled || trackAllocations;
+    if (instrumented && (backend != LoxEngine.Backend.TREE || jit || script == null)) {
+      backend = null;
+    }
+    if (backend == null || modes > 1) {
+      System.out.println(
+          "Usage: jlox [--engine=tree|nodes|closures|vm] [--jit] [--call-stats] [--stream]"
+              + " [--cache] [--stats] [script]\n"
+              + "       jlox [--engine=...] [--jit] [--stats] --serve <port> [--max-in-flight=N]"
+              + " [--max-queued=N] [--timeout-ms=N]\n"
+              + "       jlox [--engine=...] [--jit] [--stats] --batch <dir|file-list>"
+              + " [--workers=N]\n"
+              + "       jlox --profile [--profile-interval-us=N] [--profile-collapsed=file]"
+              + " script\n"
+              + "       jlox --allocations [--size-model=compressed|uncompressed|H,A,R,N] script");
       System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    }
+
+    if (port >= 0) {
+      serve(new LoxEngine(backend, jit, stats), port, maxInFlight, maxQueued, timeoutMillis);
+      return;
+    }
+
+    if (batch != null) {
+      System.exit(batch(new LoxEngine(backend, jit, stats), Paths.get(batch), workers, stats));
+    }
+
+    var profiler = profiled ? new Profiler(intervalMicros) : null;
+    var allocations = trackAllocations ? new AllocationTracker(sizeModel) : null;
+    var lox =
+        new Lox(
+            new LoxEngine(backend, jit),
+            callStats,
+            stream,
+            cache,
+            profiler,
+            collapsed,
+            allocations,
+            stats ? LoxStats.open() : null);
+    if (script != null) {
+      lox.runFile(script);
     } else {
-      runPrompt();
+      lox.runPrompt();
     }
   }
 
-  static void error(int line, String message) {
-    report(line, "", message);
+  private static void serve(
+      LoxEngine engine, int port, int maxInFlight, int maxQueued, long timeoutMillis)
+      throws IOException {
+    var server = new LoxServer(engine, maxInFlight, maxQueued, timeoutMillis);
+    System.out.println("Listening on port " + server.start(port) + ".");
+    try {
+      Thread.currentThread().join();
+    } catch (InterruptedException stopped) {
+      server.close();
+    }
   }
 
-  static void error(Token token, String message) {
-    if (token.getType() == TokenType.EOF) {
-      report(token.getLine(), " at end", message);
-    } else {
-      report(token.getLine(), " at '" + token.getLexeme() + "'", message);
+  private static int batch(LoxEngine engine, Path batch, int workers, boolean stats)
+      throws IOException {
+    var runner = new LoxBatch(engine, workers, System.out, System.err);
+    try {
+      return runner.run(LoxBatch.scripts(batch));
+    } catch (InterruptedException interrupted) {
+      return 130;
+    } finally {
+      if (stats) LoxStats.total().report(System.err);
     }
   }
 
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.getToken().getLine() + "]");
-    hadRuntimeError = true;
+  private void run(CharSequence source) {
+    var scanner = new Scanner(source, reporter);
+    var parser =
+        stats == null || stream
+            ? new Parser(scanner, reporter)
+            : new Parser(stats.time(Stats.Phase.SCAN, scanner::scanTokens), reporter);
+    if (stream) {
+      runStreaming(parser);
+      return;
+    }
+
+    var statements = parse(parser);
+    if (statements != null) context.execute(statements);
   }
 
-  private static void report(int line, String where, String message) {
-    System.err.printf("[line %s] Error%s: %s", line, where, message);
-    hadError = true;
+  private List<Stmt> parse(Parser parser) {
+    var statements = measure(Stats.Phase.PARSE, parser::parse);
+
+    if (reporter.isHadError()) return null;
+
+    var resolver = new Resolver(reporter);
+    measure(Stats.Phase.RESOLVE, () -> resolver.resolve(statements));
+
+    if (reporter.isHadError()) return null;
+
+    return statements;
   }
 
-  private static void run(String source) {
-    var scanner = new Scanner(source);
-    var tokens = scanner.scanTokens();
-    var parser = new Parser(tokens);
-    var statements = parser.parse();
+  private void runStreaming(Parser parser) {
+    var resolver = new Resolver(reporter);
+    while (parser.hasNext() && !reporter.isHadRuntimeError()) {
+      var statement = measure(Stats.Phase.PARSE, parser::parseDeclaration);
 
-    if (hadError) return;
+      if (reporter.isHadError()) continue;
 
-    var resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
+      measure(Stats.Phase.RESOLVE, () -> resolver.resolve(statement));
 
-    if (hadError) return;
+      if (reporter.isHadError()) continue;
 
-    interpreter.interpret(statements);
+      context.execute(List.of(statement));
+    }
   }
 
-  private static void runFile(String path) throws IOException {
-    var bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+  private void runFile(String path) throws IOException {
+    var file = Paths.get(path);
+    if (profiler != null) profiler.start();
+    if (cache) {
+      runCached(file);
+    } else {
+      run(read(file));
+    }
+    if (profiler != null) {
+      profiler.stop();
+      profiler.report(System.err);
+      if (collapsed != null) profiler.writeCollapsed(collapsed);
+    }
+    if (allocations != null) allocations.report(System.err);
+    if (callStats && context.getInterpreter() != null) {
+      context.getInterpreter().reportCallSites(System.err);
+    }
+    reportStats();
+
+    if (reporter.isHadError()) System.exit(65);
+    if (reporter.isHadRuntimeError()) System.exit(70);
+  }
+
+  private void runCached(Path file) throws IOException {
+    var programCache = ProgramCache.forScript(file);
+    var program = programCache.load();
+    if (program != null && runDecoded(file, programCache, program)) return;
+
+    var statements = parse(new Parser(new Scanner(read(file), reporter), reporter));
+    if (statements == null) return;
+    measure(Stats.Phase.COMPILE, () -> programCache.store(statements));
+    context.execute(statements);
+  }
+
+  private boolean runDecoded(Path file, ProgramCache programCache, Iterator<Stmt> program) {
+    var executed = false;
+    while (program.hasNext() && !reporter.isHadError() && !reporter.isHadRuntimeError()) {
+      Stmt statement;
+      try {
+        statement = measure(Stats.Phase.PARSE, program::next);
+      } catch (RuntimeException corrupt) {
+        programCache.delete();
+        if (!executed) return false;
+        System.err.println("Could not read the cached program for " + file + ".");
+        System.exit(70);
+        return true;
+      }
+      context.execute(List.of(statement));
+      executed = true;
+    }
+    return true;
+  }
+
+  private <T> T measure(Stats.Phase phase, Supplier<T> work) {
+    return stats == null ? work.get() : stats.time(phase, work);
+  }
+
+  private void measure(Stats.Phase phase, Runnable work) {
+    if (stats == null) {
+      work.run();
+    } else {
+      stats.time(phase, work);
+    }
+  }
 
-    if (hadError) System.exit(65);
-    if (hadRuntimeError) System.exit(70);
+  private void reportStats() {
+    if (stats == null) return;
+    LoxStats.close(stats);
+    stats.report(System.err);
+  }
+
+  private static CharSequence read(Path file) throws IOException {
+    try {
+      return SourceFile.map(file);
+    } catch (CharacterCodingException error) {
+      System.err.println("Could not read " + file + ": it is not valid UTF-8.");
+      System.exit(65);
+      return null;
+    }
   }
 
-  private static void runPrompt() throws IOException {
-    var input = new InputStreamReader(System.in);
+  private void runPrompt() throws IOException {
+    var input = new InputStreamReader(System.in, StandardCharsets.UTF_8);
     var reader = new BufferedReader(input);
 
     for (; ; ) {
       System.out.println("> ");
-      run(reader.readLine());
-      hadError = false;
+      var line = reader.readLine();
+      if (line == null) break;
+      run(line);
+      reporter.reset();
     }
+    reportStats();
   }
 }
@@ -0,0 +1,164 @@
+package dev.wilding.lox;
+
+import lombok.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+class LoxBatch {
+  private final LoxEngine engine;
+  private final int workers;
+  private final PrintStream out;
+  private final PrintStream err;
+
+  LoxBatch(LoxEngine engine, int workers, PrintStream out, PrintStream err) {
+    this.engine = engine;
+    this.workers = workers;
+    this.out = out;
+    this.err = err;
+  }
+
+  static List<Path> scripts(Path batch) throws IOException {
+    if (Files.isDirectory(batch)) {
+      try (var files = Files.walk(batch)) {
+        return files
+            .filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+            .sorted()
+            .collect(Collectors.toList());
+      }
+    }
+
+    var base = batch.toAbsolutePath().getParent();
+    var scripts = new ArrayList<Path>();
+    for (var line : Files.readAllLines(batch, StandardCharsets.UTF_8)) {
+      line = line.strip();
+      if (!line.isEmpty() && !line.startsWith("#")) scripts.add(base.resolve(line).normalize());
+    }
+    return scripts;
+  }
+
+  int run(List<Path> scripts) throws InterruptedException {
+    var start = System.nanoTime();
+    var pool = Executors.newFixedThreadPool(workers);
+    var results = new ArrayList<Result>();
+    try {
+      var pending = new ArrayList<Future<Result>>();
+      for (var script : scripts) pending.add(pool.submit(() -> run(script)));
+      for (var result : pending) {
+        results.add(result.get());
+        print(results.get(results.size() - 1));
+      }
+    } catch (ExecutionException error) {
+      throw new IllegalStateException(error.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    summarize(results, System.nanoTime() - start);
+    return results.stream().mapToInt(Result::getStatus).max().orElse(0);
+  }
+
+  private Result run(Path script) {
+    var stdout = new ByteArrayOutputStream();
+    var stderr = new ByteArrayOutputStream();
+    var errors = new PrintStream(stderr, true, StandardCharsets.UTF_8);
+    var start = System.nanoTime();
+    int status;
+    try {
+      status = execute(script, new PrintStream(stdout, true, StandardCharsets.UTF_8), errors);
+    } catch (StackOverflowError error) {
+      errors.println("Stack overflow.");
+      status = 70;
+    } catch (RuntimeException error) {
+      errors.println("Internal error: " + error);
+      status = 70;
+    }
+    return new Result(
+        script,
+        status,
+        System.nanoTime() - start,
+        stdout.toString(StandardCharsets.UTF_8),
+        stderr.toString(StandardCharsets.UTF_8));
+  }
+
+  private int execute(Path script, PrintStream stdout, PrintStream stderr) {
+    Program program;
+    try {
+      program = engine.compile(SourceFile.map(script));
+    } catch (CharacterCodingException error) {
+      stderr.println("Could not read " + script + ": it is not valid UTF-8.");
+      return 65;
+    } catch (IOException error) {
+      stderr.println("Could not read " + script + ": " + error.getMessage());
+      return 66;
+    } catch (LoxException error) {
+      error.getErrors().forEach(stderr::println);
+      return 65;
+    }
+
+    try {
+      engine.newContext(stdout, stderr).run(program);
+      return 0;
+    } catch (LoxException error) {
+      return 70;
+    }
+  }
+
+  private void print(Result result) {
+    if (!result.getOut().isEmpty()) {
+      out.println("==> " + result.getScript() + " <==");
+      out.print(result.getOut());
+    }
+    if (!result.getErr().isEmpty()) {
+      err.println("==> " + result.getScript() + " <==");
+      err.print(result.getErr());
+    }
+  }
+
+  private void summarize(List<Result> results, long wallNanos) {
+    err.println();
+    err.println("exit        ms  script");
+    var failed = 0;
+    var scriptNanos = 0L;
+    for (var result : results) {
+      err.println(
+          String.format(
+              "%4d %9.1f  %s", result.getStatus(), millis(result.getNanos()), result.getScript()));
+      if (result.getStatus() != 0) failed++;
+      scriptNanos += result.getNanos();
+    }
+    err.println(
+        String.format(
+            "%d scripts, %d failed: %.1f ms of script time in %.1f ms on %d worker%s.",
+            results.size(),
+            failed,
+            millis(scriptNanos),
+            millis(wallNanos),
+            workers,
+            workers == 1 ? "" : "s"));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  @Value
+  static class Result {
+    Path script;
+    int status;
+    long nanos;
+    String out;
+    String err;
+  }
+}
@@ -1,9 +1,30 @@
 package dev.wilding.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface LoxCallable {
   int arity();
 
   Object call(Interpreter interpreter, List<Object> arguments);
+
+  default Object call(Interpreter interpreter, Object[] arguments) {
+    return call(interpreter, Arrays.asList(arguments));
+  }
+
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, new Object[0]);
+  }
+
+  default Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, new Object[] {a});
+  }
+
+  default Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, new Object[] {a, b});
+  }
+
+  default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, new Object[] {a, b, c});
+  }
 }
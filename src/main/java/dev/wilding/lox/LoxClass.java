@@ -0,0 +1,59 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class LoxClass implements LoxCallable {
+  @Getter private final String name;
+  private final Map<String, LoxFunction> methods = new HashMap<>();
+  private final LoxFunction initializer;
+  @Getter private final Shape shape = new Shape();
+  @Getter private int instanceSize = 0;
+
+  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    this.name = name;
+    if (superclass != null) this.methods.putAll(superclass.methods);
+    this.methods.putAll(methods);
+    this.initializer = this.methods.get("init");
+  }
+
+  @Override
+  public int arity() {
+    if (initializer == null) return 0;
+    return initializer.arity();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return call(interpreter, arguments.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    var instance = new LoxInstance(this);
+    if (initializer != null) {
+      var frame = initializer.frame(instance);
+      for (var i = 0; i < arguments.length; i++) {
+        frame.define(initializer.parameterSlot(i), arguments[i]);
+      }
+      initializer.invoke(interpreter, frame);
+    }
+    return instance;
+  }
+
+  LoxFunction findMethod(String name) {
+    return methods.get(name);
+  }
+
+  void growInstanceSize(int size) {
+    if (size > instanceSize) instanceSize = size;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,94 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+public final class LoxEngine {
+  @Getter private final Backend backend;
+  private final boolean jit;
+  private final boolean stats;
+
+  public LoxEngine() {
+    this(Backend.TREE, false);
+  }
+
+  public LoxEngine(Backend backend, boolean jit) {
+    this(backend, jit, false);
+  }
+
+  LoxEngine(Backend backend, boolean jit, boolean stats) {
+    this.backend = backend;
+    this.jit = jit;
+    this.stats = stats;
+  }
+
+  public Program compile(CharSequence source) {
+    if (!stats) return compile(source, null);
+
+    var stats = new Stats();
+    try {
+      return compile(source, stats);
+    } finally {
+      LoxStats.merge(stats);
+    }
+  }
+
+  private Program compile(CharSequence source, Stats stats) {
+    var reporter = new ErrorReporter(null);
+    var scanner = new Scanner(source, reporter);
+    var parser =
+        stats == null
+            ? new Parser(scanner, reporter)
+            : new Parser(stats.time(Stats.Phase.SCAN, scanner::scanTokens), reporter);
+    var statements = measure(stats, Stats.Phase.PARSE, parser::parse);
+    if (!reporter.isHadError()) {
+      measure(stats, Stats.Phase.RESOLVE, () -> new Resolver(reporter).resolve(statements));
+    }
+    if (reporter.isHadError()) throw new LoxException(reporter.getErrors());
+
+    if (backend == Backend.VM) {
+      var compiler = new Compiler(reporter);
+      var script = measure(stats, Stats.Phase.COMPILE, () -> compiler.compile(statements));
+      if (reporter.isHadError()) throw new LoxException(reporter.getErrors());
+      return new Program(backend, null, script);
+    }
+    var encoded = measure(stats, Stats.Phase.COMPILE, () -> ProgramCache.encode(statements));
+    return new Program(backend, encoded, null);
+  }
+
+  public Context newContext(PrintStream out) {
+    return new Context(backend, jit, stats, out, null);
+  }
+
+  Context newContext(PrintStream out, PrintStream err) {
+    return new Context(backend, jit, stats, out, err);
+  }
+
+  private static <T> T measure(Stats stats, Stats.Phase phase, Supplier<T> work) {
+    return stats == null ? work.get() : stats.time(phase, work);
+  }
+
+  private static void measure(Stats stats, Stats.Phase phase, Runnable work) {
+    if (stats == null) {
+      work.run();
+    } else {
+      stats.time(phase, work);
+    }
+  }
+
+  public enum Backend {
+    TREE,
+    NODES,
+    CLOSURES,
+    VM;
+
+    public static Backend fromName(String name) {
+      for (var backend : values()) {
+        if (backend.name().equalsIgnoreCase(name)) return backend;
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+import java.util.List;
+
+public class LoxException extends RuntimeException {
+  @Getter private final List<String> errors;
+
+  LoxException(List<String> errors) {
+    super(String.join("\n", errors));
+    this.errors = List.copyOf(errors);
+  }
+}
@@ -8,6 +8,8 @@ import java.util.List;
 class LoxFunction implements LoxCallable {
   private final Stmt.Function declaration;
   private final Environment closure;
+  private final boolean isInitializer;
+  private final LoxInstance receiver;
 
   @Override
   public int arity() {
@@ -16,21 +18,158 @@ class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    var environment = new Environment(closure);
-    for (var i = 0; i < declaration.getParams().size(); i++) {
-      environment.define(declaration.getParams().get(i).getLexeme(), arguments.get(i));
-    }
+    return call(interpreter, arguments.toArray());
+  }
 
-    try {
-      interpreter.executeBlock(declaration.getBody(), environment);
-    } catch (Return returnValue) {
-      return returnValue.getValue();
-    }
-    return null;
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    var compiled = compiled(interpreter);
+    if (compiled != null) return run(interpreter, compiled, arguments);
+
+    return interpret(interpreter, arguments);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    var compiled = compiled(interpreter);
+    if (compiled != null) return run(interpreter, compiled, new Object[0]);
+
+    return execute(interpreter, frame());
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    var compiled = compiled(interpreter);
+    if (compiled != null) return run(interpreter, compiled, new Object[] {a});
+
+    var environment = frame();
+    environment.define(parameterSlot(0), a);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    var compiled = compiled(interpreter);
+    if (compiled != null) return run(interpreter, compiled, new Object[] {a, b});
+
+    var environment = frame();
+    environment.define(parameterSlot(0), a);
+    environment.define(parameterSlot(1), b);
+    return execute(interpreter, environment);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    var compiled = compiled(interpreter);
+    if (compiled != null) return run(interpreter, compiled, new Object[] {a, b, c});
+
+    var environment = frame();
+    environment.define(parameterSlot(0), a);
+    environment.define(parameterSlot(1), b);
+    environment.define(parameterSlot(2), c);
+    return execute(interpreter, environment);
   }
 
   @Override
   public String toString() {
     return String.format("<fn %s>", declaration.getName().getLexeme());
   }
+
+  LoxFunction bind(LoxInstance instance) {
+    return new LoxFunction(declaration, closure, isInitializer, instance);
+  }
+
+  Environment frame() {
+    return frame(receiver);
+  }
+
+  Environment frame(LoxInstance receiver) {
+    var environment = new Environment(closure, declaration.getSize());
+    if (declaration.isMethod()) environment.define(0, receiver);
+    return environment;
+  }
+
+  Object invoke(Interpreter interpreter, Environment frame) {
+    return execute(interpreter, frame);
+  }
+
+  boolean isCompiled(Interpreter interpreter) {
+    return compiled(interpreter) != null;
+  }
+
+  int frameSize() {
+    return declaration.getSize();
+  }
+
+  int parameterSlot(int index) {
+    return declaration.isMethod() ? index + 1 : index;
+  }
+
+  private Object run(Interpreter interpreter, JitCode compiled, Object[] arguments) {
+    var function = this;
+    for (; ; ) {
+      var value = compiled.invoke(interpreter, function.closure, arguments);
+      if (value != JitCode.TAIL_CALL) return value;
+
+      function = interpreter.takeTailCall();
+      arguments = interpreter.takeTailArguments();
+      compiled = function.compiled(interpreter);
+      if (compiled == null) return function.interpret(interpreter, arguments);
+    }
+  }
+
+  private Object interpret(Interpreter interpreter, Object[] arguments) {
+    var environment = frame();
+    for (var i = 0; i < arguments.length; i++) {
+      environment.define(parameterSlot(i), arguments[i]);
+    }
+    return execute(interpreter, environment);
+  }
+
+  private JitCode compiled(Interpreter interpreter) {
+    if (declaration.isMethod()) return null;
+
+    var compiled = declaration.getCompiled();
+    if (compiled == null) compiled = interpreter.profile(declaration);
+    return compiled;
+  }
+
+  private Object execute(Interpreter interpreter, Environment environment) {
+    interpreter.checkCancelled();
+    var profiler = interpreter.getProfiler();
+    var stats = interpreter.getStats();
+    if (profiler == null && stats == null) return execute(interpreter, environment, null, null);
+
+    if (profiler != null) profiler.enter(declaration.getName().getLexeme(), declaration.getLine());
+    if (stats != null) stats.enter();
+    try {
+      return execute(interpreter, environment, profiler, stats);
+    } finally {
+      if (profiler != null) profiler.exit();
+      if (stats != null) stats.exit();
+    }
+  }
+
+  private Object execute(
+      Interpreter interpreter, Environment environment, Profiler profiler, Stats stats) {
+    var function = this;
+    for (; ; ) {
+      var completion = interpreter.executeBlock(function.declaration.getBody(), environment);
+      if (completion == Completion.TAIL_CALL) {
+        function = interpreter.takeTailCall();
+        environment = interpreter.takeTailFrame();
+        interpreter.checkCancelled();
+        if (stats != null) stats.tailCall();
+        if (profiler != null) {
+          var next = function.declaration;
+          profiler.replace(next.getName().getLexeme(), next.getLine());
+        }
+        continue;
+      }
+
+      var value = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
+      if (function.isInitializer) return environment.getAt(0, 0);
+      return value;
+    }
+  }
 }
@@ -0,0 +1,88 @@
+package dev.wilding.lox;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+class LoxInstance {
+  @Getter private final LoxClass klass;
+  private Shape shape;
+  private Object[] fields;
+
+  LoxInstance(LoxClass klass) {
+    this.klass = klass;
+    this.shape = klass.getShape();
+    this.fields = new Object[klass.getInstanceSize()];
+  }
+
+  LoxFunction findMethod(Token name, PropertyCache cache) {
+    if (shape == cache.shape) return cache.method;
+
+    LoxFunction method = null;
+    if (shape.slot(name.getLexeme()) == -1) method = klass.findMethod(name.getLexeme());
+
+    cache.shape = shape;
+    cache.method = method;
+    return method;
+  }
+
+  Object get(Token name) {
+    var slot = shape.slot(name.getLexeme());
+    if (slot != -1) return fields[slot];
+
+    return bindMethod(name);
+  }
+
+  Object get(Token name, PropertyCache cache) {
+    if (shape == cache.shape) return fields[cache.slot];
+
+    var slot = shape.slot(name.getLexeme());
+    if (slot != -1) {
+      cache.shape = shape;
+      cache.slot = slot;
+      return fields[slot];
+    }
+
+    return bindMethod(name);
+  }
+
+  void set(Token name, Object value, PropertyCache cache) {
+    if (shape == cache.shape) {
+      store(cache.next, cache.slot, value);
+      return;
+    }
+
+    var next = shape;
+    var slot = shape.slot(name.getLexeme());
+    if (slot == -1) {
+      next = shape.with(name.getLexeme());
+      slot = shape.size();
+    }
+
+    cache.shape = shape;
+    cache.next = next;
+    cache.slot = slot;
+    store(next, slot, value);
+  }
+
+  private Object bindMethod(Token name) {
+    var method = klass.findMethod(name.getLexeme());
+    if (method != null) return method.bind(this);
+
+    throw new RuntimeError(name, String.format("Undefined property '%s'.", name.getLexeme()));
+  }
+
+  private void store(Shape next, int slot, Object value) {
+    if (slot >= fields.length) {
+      fields = Arrays.copyOf(fields, Math.max(slot + 1, fields.length * 2));
+      klass.growInstanceSize(next.size());
+    }
+    shape = next;
+    fields[slot] = value;
+  }
+
+  @Override
+  public String toString() {
+    return klass.getName() + " instance";
+  }
+}
@@ -0,0 +1,246 @@
+package dev.wilding.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LoxServer implements AutoCloseable {
+  static final int MAX_SOURCE_BYTES = 1 << 20;
+  static final int CACHED_PROGRAMS = 256;
+  static final int DRAIN_MILLIS = 100;
+  static final int BUSY_RESPONSES = 64;
+
+  private final LoxEngine engine;
+  private final long timeoutMillis;
+  private final ThreadPoolExecutor workers;
+  private final ThreadPoolExecutor responder;
+  private final ScheduledExecutorService watchdog;
+  private final Map<String, Program> programs = new ProgramMap();
+  private final AtomicInteger compilations = new AtomicInteger();
+  private ServerSocket socket;
+
+  LoxServer(LoxEngine engine, int maxInFlight, int maxQueued, long timeoutMillis) {
+    this.engine = engine;
+    this.timeoutMillis = timeoutMillis;
+    BlockingQueue<Runnable> queue =
+        maxQueued == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(maxQueued);
+    this.workers =
+        new ThreadPoolExecutor(
+            maxInFlight, maxInFlight, 0, TimeUnit.MILLISECONDS, queue, daemon("lox-worker"));
+    this.responder =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(BUSY_RESPONSES),
+            daemon("lox-responder"));
+    this.watchdog = Executors.newSingleThreadScheduledExecutor(daemon("lox-watchdog"));
+  }
+
+  int start(int port) throws IOException {
+    socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    var acceptor = new Thread(this::accept, "lox-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return socket.getLocalPort();
+  }
+
+  int getCompilations() {
+    return compilations.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+    workers.shutdownNow();
+    responder.shutdownNow();
+    watchdog.shutdownNow();
+  }
+
+  private void accept() {
+    while (!socket.isClosed()) {
+      Socket client;
+      try {
+        client = socket.accept();
+      } catch (IOException error) {
+        continue;
+      }
+
+      try {
+        workers.execute(() -> handle(client));
+      } catch (RejectedExecutionException busy) {
+        reject(client);
+      }
+    }
+  }
+
+  private void reject(Socket client) {
+    try {
+      responder.execute(() -> respond(client, "busy", "Too many requests in flight.\n"));
+    } catch (RejectedExecutionException overloaded) {
+      try {
+        client.close();
+      } catch (IOException ignored) {
+        // Dropping the connection is all that is left to do.
+      }
+    }
+  }
+
+  private void handle(Socket client) {
+    try (client) {
+      var request = new ByteArrayOutputStream();
+      read(client, request, MAX_SOURCE_BYTES + 1, timeoutMillis);
+      var source = request.toByteArray();
+      if (source.length > MAX_SOURCE_BYTES) {
+        respond(client, "error", "Script is larger than " + MAX_SOURCE_BYTES + " bytes.\n");
+        return;
+      }
+
+      var output = new ByteArrayOutputStream();
+      var status = execute(source, new PrintStream(output, true, StandardCharsets.UTF_8));
+      respond(client, status, output.toString(StandardCharsets.UTF_8));
+    } catch (IOException ignored) {
+      // The client went away; there is nobody left to answer.
+    }
+  }
+
+  private String execute(byte[] source, PrintStream out) {
+    try {
+      return run(source, out);
+    } catch (StackOverflowError error) {
+      out.print("Stack overflow.\n");
+      return "error";
+    } catch (RuntimeException error) {
+      out.print("Internal error: " + error + "\n");
+      return "error";
+    }
+  }
+
+  private String run(byte[] source, PrintStream out) {
+    Program program;
+    try {
+      program = compile(source);
+    } catch (LoxException error) {
+      printErrors(out, error.getErrors());
+      return "error";
+    }
+
+    var context = engine.newContext(out);
+    var deadline = watchdog.schedule(context::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+    try {
+      context.run(program);
+      return "ok";
+    } catch (LoxException error) {
+      printErrors(out, error.getErrors());
+      return timedOut(error.getErrors()) ? "timeout" : "error";
+    } finally {
+      deadline.cancel(false);
+    }
+  }
+
+  private Program compile(byte[] source) {
+    var key = hash(source);
+    synchronized (programs) {
+      var program = programs.get(key);
+      if (program != null) return program;
+    }
+
+    var program = engine.compile(new String(source, StandardCharsets.UTF_8));
+    compilations.incrementAndGet();
+    synchronized (programs) {
+      programs.put(key, program);
+    }
+    return program;
+  }
+
+  private static boolean timedOut(List<String> errors) {
+    return errors.stream().anyMatch(error -> error.startsWith(ExecutionCancelled.MESSAGE));
+  }
+
+  private static void printErrors(PrintStream out, List<String> errors) {
+    for (var error : errors) {
+      out.print(error.endsWith("\n") ? error : error + "\n");
+    }
+  }
+
+  private static void respond(Socket client, String status, String body) {
+    try (client) {
+      var response = client.getOutputStream();
+      response.write((status + "\n" + body).getBytes(StandardCharsets.UTF_8));
+      client.shutdownOutput();
+      // Closing with unread input resets the connection, which can discard the response.
+      read(client, OutputStream.nullOutputStream(), MAX_SOURCE_BYTES, DRAIN_MILLIS);
+    } catch (IOException ignored) {
+      // The client closed the connection before reading the response.
+    }
+  }
+
+  private static void read(Socket client, OutputStream sink, int limit, long millis)
+      throws IOException {
+    var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    var input = client.getInputStream();
+    var buffer = new byte[8192];
+    for (var total = 0; total < limit; ) {
+      var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0) throw new SocketTimeoutException("Read timed out.");
+      client.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+      var count = input.read(buffer, 0, Math.min(buffer.length, limit - total));
+      if (count < 0) return;
+      sink.write(buffer, 0, count);
+      total += count;
+    }
+  }
+
+  private static String hash(byte[] source) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256").digest(source);
+      var hex = new StringBuilder(digest.length * 2);
+      for (var b : digest) hex.append(String.format("%02x", b));
+      return hex.toString();
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  private static ThreadFactory daemon(String name) {
+    var count = new AtomicInteger();
+    return runnable -> {
+      var thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static class ProgramMap extends LinkedHashMap<String, Program> {
+    ProgramMap() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+      return size() > CACHED_PROGRAMS;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package dev.wilding.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+class LoxStats implements LoxStatsMXBean {
+  static final String OBJECT_NAME = "dev.wilding.lox:type=LoxStats";
+  private static final LoxStats INSTANCE = new LoxStats();
+
+  private final Stats retired = new Stats();
+  private final Set<Stats> live = ConcurrentHashMap.newKeySet();
+  private long runs;
+  private boolean registered;
+
+  private LoxStats() {}
+
+  static Stats open() {
+    INSTANCE.register();
+    var stats = new Stats();
+    INSTANCE.live.add(stats);
+    return stats;
+  }
+
+  static void merge(Stats stats) {
+    INSTANCE.register();
+    synchronized (INSTANCE) {
+      INSTANCE.retired.add(stats);
+    }
+  }
+
+  static void close(Stats stats) {
+    synchronized (INSTANCE) {
+      INSTANCE.retired.add(stats);
+      INSTANCE.live.remove(stats);
+      INSTANCE.runs++;
+    }
+
+    var event = new ExecutionEvent();
+    if (event.shouldCommit()) {
+      event.statements = stats.statements;
+      event.calls = stats.calls;
+      event.maxDepth = stats.maxDepth;
+      event.environments = stats.environments;
+      event.runtimeErrors = stats.runtimeErrors;
+      event.commit();
+    }
+  }
+
+  static Stats total() {
+    return INSTANCE.snapshot();
+  }
+
+  @Override
+  public synchronized long getRuns() {
+    return runs;
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return snapshot().statements;
+  }
+
+  @Override
+  public long getCalls() {
+    return snapshot().calls;
+  }
+
+  @Override
+  public long getMaxCallDepth() {
+    return snapshot().maxDepth;
+  }
+
+  @Override
+  public long getEnvironmentsCreated() {
+    return snapshot().environments;
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return snapshot().runtimeErrors;
+  }
+
+  @Override
+  public Map<String, Long> getPhaseWallNanos() {
+    return byPhase(snapshot().wallNanos);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseCpuNanos() {
+    return byPhase(snapshot().cpuNanos);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseAllocatedBytes() {
+    return byPhase(snapshot().allocatedBytes);
+  }
+
+  private synchronized Stats snapshot() {
+    var total = new Stats();
+    total.add(retired);
+    for (var stats : live) total.add(stats);
+    return total;
+  }
+
+  private synchronized void register() {
+    if (registered) return;
+    try {
+      var server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(this, new ObjectName(OBJECT_NAME));
+      registered = true;
+    } catch (JMException error) {
+      throw new IllegalStateException("Could not register " + OBJECT_NAME + ".", error);
+    }
+  }
+
+  private static Map<String, Long> byPhase(long[] values) {
+    var phases = new LinkedHashMap<String, Long>();
+    for (var phase : Stats.Phase.values()) phases.put(phase.getName(), values[phase.ordinal()]);
+    return phases;
+  }
+}
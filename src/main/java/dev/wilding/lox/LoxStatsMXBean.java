@@ -0,0 +1,23 @@
+package dev.wilding.lox;
+
+import java.util.Map;
+
+public interface LoxStatsMXBean {
+  long getRuns();
+
+  long getStatementsExecuted();
+
+  long getCalls();
+
+  long getMaxCallDepth();
+
+  long getEnvironmentsCreated();
+
+  long getRuntimeErrors();
+
+  Map<String, Long> getPhaseWallNanos();
+
+  Map<String, Long> getPhaseCpuNanos();
+
+  Map<String, Long> getPhaseAllocatedBytes();
+}
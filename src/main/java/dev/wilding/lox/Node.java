@@ -0,0 +1,798 @@
+package dev.wilding.lox;
+
+abstract class Node {
+  Node parent;
+
+  abstract Object execute(Environment frame);
+
+  <T extends Node> T adopt(T child) {
+    if (child != null) child.parent = this;
+    return child;
+  }
+
+  <T extends Node> T replace(T replacement) {
+    parent.replaceChild(this, replacement);
+    replacement.parent = parent;
+    return replacement;
+  }
+
+  void replaceChild(Node oldChild, Node newChild) {
+    throw new IllegalStateException("Cannot replace child of leaf node.");
+  }
+
+  static void replaceIn(Node[] children, Node oldChild, Node newChild) {
+    for (var i = 0; i < children.length; i++) {
+      if (children[i] == oldChild) {
+        children[i] = newChild;
+        return;
+      }
+    }
+  }
+
+  static Object[] executeAll(Node[] nodes, Environment frame) {
+    var values = new Object[nodes.length];
+    for (var i = 0; i < nodes.length; i++) {
+      values[i] = nodes[i].execute(frame);
+    }
+    return values;
+  }
+
+  static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+
+  static class Literal extends Node {
+    final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return value;
+    }
+  }
+
+  static class LocalVariable extends Node {
+    final int slot;
+
+    LocalVariable(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return frame.getAt(0, slot);
+    }
+  }
+
+  static class EnclosingVariable extends Node {
+    final int depth;
+    final int slot;
+
+    EnclosingVariable(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return frame.getAt(depth, slot);
+    }
+  }
+
+  static class UninitializedGlobalVariable extends Node {
+    final Environment globals;
+    final Token name;
+
+    UninitializedGlobalVariable(Environment globals, Token name) {
+      this.globals = globals;
+      this.name = name;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var cell = globals.cell(name.getLexeme());
+      if (cell == null) {
+        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+      }
+      return replace(new CachedGlobalVariable(cell)).execute(frame);
+    }
+  }
+
+  static class CachedGlobalVariable extends Node {
+    final Environment.Cell cell;
+
+    CachedGlobalVariable(Environment.Cell cell) {
+      this.cell = cell;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return cell.value;
+    }
+  }
+
+  static class AssignLocal extends Node {
+    final int depth;
+    final int slot;
+    Node value;
+
+    AssignLocal(int depth, int slot, Node value) {
+      this.depth = depth;
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var result = value.execute(frame);
+      frame.assignAt(depth, slot, result);
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = newChild;
+    }
+  }
+
+  static class AssignGlobal extends Node {
+    final Environment globals;
+    final Token name;
+    Node value;
+
+    AssignGlobal(Environment globals, Token name, Node value) {
+      this.globals = globals;
+      this.name = name;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var result = value.execute(frame);
+      globals.assign(name, result);
+      return result;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = newChild;
+    }
+  }
+
+  abstract static class Binary extends Node {
+    final Token operator;
+    Node left;
+    Node right;
+
+    Binary(Token operator, Node left, Node right) {
+      this.operator = operator;
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return execute(left.execute(frame), right.execute(frame));
+    }
+
+    abstract Object execute(Object left, Object right);
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (left == oldChild) {
+        left = newChild;
+      } else {
+        right = newChild;
+      }
+    }
+  }
+
+  static class UninitializedAdd extends Binary {
+    UninitializedAdd(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      Binary specialized;
+      if (left instanceof Double && right instanceof Double) {
+        specialized = new NumberAdd(operator, this.left, this.right);
+      } else if (left instanceof String && right instanceof String) {
+        specialized = new StringAdd(operator, this.left, this.right);
+      } else {
+        specialized = new GenericAdd(operator, this.left, this.right);
+      }
+      return replace(specialized).execute(left, right);
+    }
+  }
+
+  static class NumberAdd extends Binary {
+    NumberAdd(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      if (left instanceof Double && right instanceof Double) {
+        return (double) left + (double) right;
+      }
+      return replace(new GenericAdd(operator, this.left, this.right)).execute(left, right);
+    }
+  }
+
+  static class StringAdd extends Binary {
+    StringAdd(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      if (left instanceof String && right instanceof String) {
+        return (String) left + (String) right;
+      }
+      return replace(new GenericAdd(operator, this.left, this.right)).execute(left, right);
+    }
+  }
+
+  static class GenericAdd extends Binary {
+    GenericAdd(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      if (left instanceof Double && right instanceof Double) {
+        return (double) left + (double) right;
+      }
+
+      if (left instanceof String && right instanceof String) {
+        return (String) left + (String) right;
+      }
+
+      throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+  }
+
+  static class Subtract extends Binary {
+    Subtract(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left - (double) right;
+    }
+  }
+
+  static class Multiply extends Binary {
+    Multiply(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left * (double) right;
+    }
+  }
+
+  static class Divide extends Binary {
+    Divide(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left / (double) right;
+    }
+  }
+
+  static class Greater extends Binary {
+    Greater(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left > (double) right;
+    }
+  }
+
+  static class GreaterEqual extends Binary {
+    GreaterEqual(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left >= (double) right;
+    }
+  }
+
+  static class Less extends Binary {
+    Less(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left < (double) right;
+    }
+  }
+
+  static class LessEqual extends Binary {
+    LessEqual(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      checkNumberOperands(operator, left, right);
+      return (double) left <= (double) right;
+    }
+  }
+
+  static class Equal extends Binary {
+    Equal(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      return Interpreter.isEqual(left, right);
+    }
+  }
+
+  static class NotEqual extends Binary {
+    NotEqual(Token operator, Node left, Node right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object execute(Object left, Object right) {
+      return !Interpreter.isEqual(left, right);
+    }
+  }
+
+  static class Negate extends Node {
+    final Token operator;
+    Node right;
+
+    Negate(Token operator, Node right) {
+      this.operator = operator;
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var value = right.execute(frame);
+      if (!(value instanceof Double)) {
+        throw new RuntimeError(operator, "Operand must be a number.");
+      }
+      return -(double) value;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      right = newChild;
+    }
+  }
+
+  static class Not extends Node {
+    Node right;
+
+    Not(Node right) {
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return !Interpreter.isTruthy(right.execute(frame));
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      right = newChild;
+    }
+  }
+
+  static class And extends Node {
+    Node left;
+    Node right;
+
+    And(Node left, Node right) {
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var value = left.execute(frame);
+      if (!Interpreter.isTruthy(value)) return value;
+      return right.execute(frame);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (left == oldChild) {
+        left = newChild;
+      } else {
+        right = newChild;
+      }
+    }
+  }
+
+  static class Or extends Node {
+    Node left;
+    Node right;
+
+    Or(Node left, Node right) {
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var value = left.execute(frame);
+      if (Interpreter.isTruthy(value)) return value;
+      return right.execute(frame);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (left == oldChild) {
+        left = newChild;
+      } else {
+        right = newChild;
+      }
+    }
+  }
+
+  abstract static class Call extends Node {
+    final Interpreter interpreter;
+    final Token paren;
+    Node callee;
+    final Node[] arguments;
+
+    Call(Interpreter interpreter, Token paren, Node callee, Node[] arguments) {
+      this.interpreter = interpreter;
+      this.paren = paren;
+      this.callee = adopt(callee);
+      this.arguments = arguments;
+      for (var argument : arguments) {
+        adopt(argument);
+      }
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      var function = callee.execute(frame);
+      return execute(function, executeAll(arguments, frame));
+    }
+
+    abstract Object execute(Object callee, Object[] arguments);
+
+    Object callGeneric(Object callee, Object[] arguments) {
+      if (!(callee instanceof LoxCallable)) {
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+      }
+
+      var function = (LoxCallable) callee;
+      if (arguments.length != function.arity()) {
+        var message =
+            String.format(
+                "Expected %s arguments but got %s.", function.arity(), arguments.length);
+        throw new RuntimeError(paren, message);
+      }
+
+      if (function instanceof NodeFunction) {
+        return ((NodeFunction) function).invoke(interpreter, arguments);
+      }
+      return function.call(interpreter, arguments);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (callee == oldChild) {
+        callee = newChild;
+      } else {
+        replaceIn(arguments, oldChild, newChild);
+      }
+    }
+  }
+
+  static class UninitializedCall extends Call {
+    UninitializedCall(Interpreter interpreter, Token paren, Node callee, Node[] arguments) {
+      super(interpreter, paren, callee, arguments);
+    }
+
+    @Override
+    Object execute(Object callee, Object[] arguments) {
+      Call specialized;
+      if (callee instanceof NodeFunction
+          && ((NodeFunction) callee).arity() == arguments.length) {
+        var declaration = ((NodeFunction) callee).getDeclaration();
+        specialized = new DirectCall(interpreter, paren, this.callee, this.arguments, declaration);
+      } else {
+        specialized = new GenericCall(interpreter, paren, this.callee, this.arguments);
+      }
+      return replace(specialized).execute(callee, arguments);
+    }
+  }
+
+  static class DirectCall extends Call {
+    final Function target;
+
+    DirectCall(
+        Interpreter interpreter, Token paren, Node callee, Node[] arguments, Function target) {
+      super(interpreter, paren, callee, arguments);
+      this.target = target;
+    }
+
+    @Override
+    Object execute(Object callee, Object[] arguments) {
+      if (callee instanceof NodeFunction && ((NodeFunction) callee).getDeclaration() == target) {
+        return ((NodeFunction) callee).invoke(interpreter, arguments);
+      }
+      return replace(new GenericCall(interpreter, paren, this.callee, this.arguments))
+          .execute(callee, arguments);
+    }
+  }
+
+  static class GenericCall extends Call {
+    GenericCall(Interpreter interpreter, Token paren, Node callee, Node[] arguments) {
+      super(interpreter, paren, callee, arguments);
+    }
+
+    @Override
+    Object execute(Object callee, Object[] arguments) {
+      return callGeneric(callee, arguments);
+    }
+  }
+
+  static class Block extends Node {
+    final int size;
+    final Node[] statements;
+
+    Block(int size, Node[] statements) {
+      this.size = size;
+      this.statements = statements;
+      for (var statement : statements) {
+        adopt(statement);
+      }
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      executeStatements(statements, new Environment(frame, size));
+      return null;
+    }
+
+    static void executeStatements(Node[] statements, Environment frame) {
+      for (var statement : statements) {
+        statement.execute(frame);
+      }
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      replaceIn(statements, oldChild, newChild);
+    }
+  }
+
+  static class Body extends Node {
+    final Node[] statements;
+
+    Body(Node[] statements) {
+      this.statements = statements;
+      for (var statement : statements) {
+        adopt(statement);
+      }
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Block.executeStatements(statements, frame);
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      replaceIn(statements, oldChild, newChild);
+    }
+  }
+
+  static class ExpressionStatement extends Node {
+    Node expression;
+
+    ExpressionStatement(Node expression) {
+      this.expression = adopt(expression);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      expression.execute(frame);
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      expression = newChild;
+    }
+  }
+
+  static class Print extends Node {
+    final Interpreter interpreter;
+    Node expression;
+
+    Print(Interpreter interpreter, Node expression) {
+      this.interpreter = interpreter;
+      this.expression = adopt(expression);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      interpreter.print(expression.execute(frame));
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      expression = newChild;
+    }
+  }
+
+  static class DefineLocal extends Node {
+    final int slot;
+    Node value;
+
+    DefineLocal(int slot, Node value) {
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      frame.define(slot, value.execute(frame));
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = newChild;
+    }
+  }
+
+  static class DefineGlobal extends Node {
+    final Environment globals;
+    final String name;
+    Node value;
+
+    DefineGlobal(Environment globals, String name, Node value) {
+      this.globals = globals;
+      this.name = name;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      globals.define(name, value.execute(frame));
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = newChild;
+    }
+  }
+
+  static class Function extends Node {
+    final String name;
+    final int arity;
+    final int size;
+    final Body body;
+
+    Function(String name, int arity, int size, Body body) {
+      this.name = name;
+      this.arity = arity;
+      this.size = size;
+      this.body = adopt(body);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return new NodeFunction(this, frame);
+    }
+  }
+
+  static class If extends Node {
+    Node condition;
+    Node thenBranch;
+    Node elseBranch;
+
+    If(Node condition, Node thenBranch, Node elseBranch) {
+      this.condition = adopt(condition);
+      this.thenBranch = adopt(thenBranch);
+      this.elseBranch = adopt(elseBranch);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      if (Interpreter.isTruthy(condition.execute(frame))) {
+        thenBranch.execute(frame);
+      } else if (elseBranch != null) {
+        elseBranch.execute(frame);
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (condition == oldChild) {
+        condition = newChild;
+      } else if (thenBranch == oldChild) {
+        thenBranch = newChild;
+      } else {
+        elseBranch = newChild;
+      }
+    }
+  }
+
+  static class ReturnStatement extends Node {
+    Node value;
+
+    ReturnStatement(Node value) {
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      throw new Return(value.execute(frame));
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = newChild;
+    }
+  }
+
+  static class While extends Node {
+    final Interpreter interpreter;
+    Node condition;
+    Node body;
+
+    While(Interpreter interpreter, Node condition, Node body) {
+      this.interpreter = interpreter;
+      this.condition = adopt(condition);
+      this.body = adopt(body);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      while (Interpreter.isTruthy(condition.execute(frame))) {
+        body.execute(frame);
+        interpreter.checkCancelled();
+      }
+      return null;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      if (condition == oldChild) {
+        condition = newChild;
+      } else {
+        body = newChild;
+      }
+    }
+  }
+}
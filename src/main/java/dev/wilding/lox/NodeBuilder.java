@@ -0,0 +1,218 @@
+package dev.wilding.lox;
+
+import java.util.List;
+
+class NodeBuilder implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+  private final Interpreter interpreter;
+  private final Environment globals;
+
+  NodeBuilder(Interpreter interpreter, Environment globals) {
+    this.interpreter = interpreter;
+    this.globals = globals;
+  }
+
+  Node.Body build(List<Stmt> statements) {
+    return new Node.Body(buildAll(statements));
+  }
+
+  @Override
+  public Node visitAssignExpr(Expr.Assign expr) {
+    var value = build(expr.getValue());
+    if (expr.getDepth() == Expr.GLOBAL) {
+      return new Node.AssignGlobal(globals, expr.getName(), value);
+    }
+    return new Node.AssignLocal(expr.getDepth(), expr.getSlot(), value);
+  }
+
+  @Override
+  public Node visitBinaryExpr(Expr.Binary expr) {
+    var operator = expr.getOperator();
+    var left = build(expr.getLeft());
+    var right = build(expr.getRight());
+
+    switch (operator.getType()) {
+      case BANG_EQUAL:
+        return new Node.NotEqual(operator, left, right);
+      case EQUAL_EQUAL:
+        return new Node.Equal(operator, left, right);
+      case GREATER:
+        return new Node.Greater(operator, left, right);
+      case GREATER_EQUAL:
+        return new Node.GreaterEqual(operator, left, right);
+      case LESS:
+        return new Node.Less(operator, left, right);
+      case LESS_EQUAL:
+        return new Node.LessEqual(operator, left, right);
+      case MINUS:
+        return new Node.Subtract(operator, left, right);
+      case PLUS:
+        return new Node.UninitializedAdd(operator, left, right);
+      case SLASH:
+        return new Node.Divide(operator, left, right);
+      case STAR:
+        return new Node.Multiply(operator, left, right);
+    }
+
+    return new Node.Literal(null);
+  }
+
+  @Override
+  public Node visitCallExpr(Expr.Call expr) {
+    var callee = build(expr.getCallee());
+    var arguments = new Node[expr.getArguments().size()];
+    for (var i = 0; i < arguments.length; i++) {
+      arguments[i] = build(expr.getArguments().get(i));
+    }
+    return new Node.UninitializedCall(interpreter, expr.getParen(), callee, arguments);
+  }
+
+  @Override
+  public Node visitGetExpr(Expr.Get expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Node visitGroupingExpr(Expr.Grouping expr) {
+    return build(expr.getExpression());
+  }
+
+  @Override
+  public Node visitInvokeExpr(Expr.Invoke expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Node visitLiteralExpr(Expr.Literal expr) {
+    return new Node.Literal(expr.getValue());
+  }
+
+  @Override
+  public Node visitLogicalExpr(Expr.Logical expr) {
+    var left = build(expr.getLeft());
+    var right = build(expr.getRight());
+
+    if (expr.getOperator().getType() == TokenType.OR) {
+      return new Node.Or(left, right);
+    }
+    return new Node.And(left, right);
+  }
+
+  @Override
+  public Node visitSetExpr(Expr.Set expr) {
+    throw unsupported(expr.getName());
+  }
+
+  @Override
+  public Node visitSuperExpr(Expr.Super expr) {
+    throw unsupported(expr.getKeyword());
+  }
+
+  @Override
+  public Node visitThisExpr(Expr.This expr) {
+    throw unsupported(expr.getKeyword());
+  }
+
+  @Override
+  public Node visitUnaryExpr(Expr.Unary expr) {
+    var right = build(expr.getRight());
+
+    if (expr.getOperator().getType() == TokenType.MINUS) {
+      return new Node.Negate(expr.getOperator(), right);
+    }
+    return new Node.Not(right);
+  }
+
+  @Override
+  public Node visitVariableExpr(Expr.Variable expr) {
+    switch (expr.getDepth()) {
+      case Expr.GLOBAL:
+        return new Node.UninitializedGlobalVariable(globals, expr.getName());
+      case 0:
+        return new Node.LocalVariable(expr.getSlot());
+      default:
+        return new Node.EnclosingVariable(expr.getDepth(), expr.getSlot());
+    }
+  }
+
+  @Override
+  public Node visitBlockStmt(Stmt.Block stmt) {
+    return new Node.Block(stmt.getSize(), buildAll(stmt.getStatements()));
+  }
+
+  @Override
+  public Node visitClassStmt(Stmt.Class stmt) {
+    throw unsupported(stmt.getName());
+  }
+
+  @Override
+  public Node visitExpressionStmt(Stmt.Expression stmt) {
+    return new Node.ExpressionStatement(build(stmt.getExpression()));
+  }
+
+  @Override
+  public Node visitFunctionStmt(Stmt.Function stmt) {
+    var name = stmt.getName().getLexeme();
+    var body = new Node.Body(buildAll(stmt.getBody()));
+    var function = new Node.Function(name, stmt.getParams().size(), stmt.getSize(), body);
+    return define(name, stmt.getSlot(), function);
+  }
+
+  @Override
+  public Node visitIfStmt(Stmt.If stmt) {
+    var elseBranch = stmt.getElseBranch();
+    return new Node.If(
+        build(stmt.getCondition()),
+        build(stmt.getThenBranch()),
+        elseBranch != null ? build(elseBranch) : null);
+  }
+
+  @Override
+  public Node visitPrintStmt(Stmt.Print stmt) {
+    return new Node.Print(interpreter, build(stmt.getExpression()));
+  }
+
+  @Override
+  public Node visitReturnStmt(Stmt.Return stmt) {
+    var value = stmt.getValue();
+    return new Node.ReturnStatement(value != null ? build(value) : new Node.Literal(null));
+  }
+
+  @Override
+  public Node visitVarStmt(Stmt.Var stmt) {
+    var initializer = stmt.getInitializer();
+    var value = initializer != null ? build(initializer) : new Node.Literal(null);
+    return define(stmt.getName().getLexeme(), stmt.getSlot(), value);
+  }
+
+  @Override
+  public Node visitWhileStmt(Stmt.While stmt) {
+    return new Node.While(interpreter, build(stmt.getCondition()), build(stmt.getBody()));
+  }
+
+  private Node build(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Node build(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Node[] buildAll(List<Stmt> statements) {
+    var nodes = new Node[statements.size()];
+    for (var i = 0; i < nodes.length; i++) {
+      nodes[i] = build(statements.get(i));
+    }
+    return nodes;
+  }
+
+  private Node define(String name, int slot, Node value) {
+    if (slot == Expr.GLOBAL) {
+      return new Node.DefineGlobal(globals, name, value);
+    }
+    return new Node.DefineLocal(slot, value);
+  }
+
+  private RuntimeError unsupported(Token token) {
+    return new RuntimeError(token, "Classes require the tree-walking interpreter.");
+  }
+}
@@ -0,0 +1,42 @@
+package dev.wilding.lox;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@AllArgsConstructor
+class NodeFunction implements LoxCallable {
+  @Getter private final Node.Function declaration;
+  private final Environment closure;
+
+  @Override
+  public int arity() {
+    return declaration.arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return invoke(interpreter, arguments.toArray());
+  }
+
+  Object invoke(Interpreter interpreter, Object[] arguments) {
+    interpreter.checkCancelled();
+    var environment = new Environment(closure, declaration.size);
+    for (var i = 0; i < arguments.length; i++) {
+      environment.define(i, arguments[i]);
+    }
+
+    try {
+      declaration.body.execute(environment);
+    } catch (Return returnValue) {
+      return returnValue.getValue();
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<fn %s>", declaration.name);
+  }
+}
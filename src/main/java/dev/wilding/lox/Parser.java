@@ -3,13 +3,25 @@ package dev.wilding.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 class Parser {
-  private final List<Token> tokens;
-  private int current = 0;
+  private final Supplier<Token> tokens;
+  private final ErrorReporter reporter;
+  private Token previous;
+  private Token next;
 
-  Parser(List<Token> tokens) {
+  Parser(Scanner scanner, ErrorReporter reporter) {
+    this(scanner::nextToken, reporter);
+  }
+
+  Parser(List<Token> tokens, ErrorReporter reporter) {
+    this(tokens.iterator()::next, reporter);
+  }
+
+  private Parser(Supplier<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
 
   List<Stmt> parse() {
@@ -21,6 +33,14 @@ class Parser {
     return statements;
   }
 
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  Stmt parseDeclaration() {
+    return declaration();
+  }
+
   private Expr assignment() {
     var expr = or();
 
@@ -31,6 +51,9 @@ class Parser {
       if (expr instanceof Expr.Variable) {
         var name = ((Expr.Variable) expr).getName();
         return new Expr.Assign(name, value);
+      } else if (expr instanceof Expr.Get) {
+        var get = (Expr.Get) expr;
+        return new Expr.Set(get.getObject(), get.getName(), value);
       }
 
       error(equals, "Invalid assignment target.");
@@ -52,8 +75,11 @@ class Parser {
   }
 
   private Token advance() {
-    if (!isAtEnd()) current++;
-    return previous();
+    if (!isAtEnd()) {
+      previous = next;
+      next = null;
+    }
+    return previous;
   }
 
   private Expr and() {
@@ -85,6 +111,9 @@ class Parser {
     while (true) {
       if (match(TokenType.LEFT_PAREN)) {
         expr = finishCall(expr);
+      } else if (match(TokenType.DOT)) {
+        var name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+        expr = new Expr.Get(expr, name);
       } else {
         break;
       }
@@ -104,6 +133,26 @@ class Parser {
     throw error(peek(), message);
   }
 
+  private Stmt classDeclaration() {
+    var name = consume(TokenType.IDENTIFIER, "Expect class name.");
+
+    Expr.Variable superclass = null;
+    if (match(TokenType.LESS)) {
+      consume(TokenType.IDENTIFIER, "Expect superclass name.");
+      superclass = new Expr.Variable(previous());
+    }
+
+    consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
+
+    var methods = new ArrayList<Stmt.Function>();
+    while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+      methods.add(at(peek().getLine(), function("method")));
+    }
+
+    consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+    return new Stmt.Class(name, superclass, methods);
+  }
+
   private Expr comparison() {
     var expr = addition();
 
@@ -119,8 +168,10 @@ class Parser {
 
   private Stmt declaration() {
     try {
-      if (match(TokenType.FUN)) return function("function");
-      if (match(TokenType.VAR)) return varDeclaration();
+      var line = peek().getLine();
+      if (match(TokenType.CLASS)) return at(line, classDeclaration());
+      if (match(TokenType.FUN)) return at(line, function("function"));
+      if (match(TokenType.VAR)) return at(line, varDeclaration());
       return statement();
     } catch (ParseError error) {
       synchronize();
@@ -141,7 +192,7 @@ class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
 
@@ -167,19 +218,24 @@ class Parser {
     }
 
     var paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+    if (callee instanceof Expr.Get) {
+      var get = (Expr.Get) callee;
+      return new Expr.Invoke(get.getObject(), get.getName(), paren, arguments);
+    }
     return new Expr.Call(callee, paren, arguments);
   }
 
   private Stmt forStatement() {
+    var line = previous().getLine();
     consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 
     Stmt initializer;
     if (match(TokenType.SEMICOLON)) {
       initializer = null;
     } else if (match(TokenType.VAR)) {
-      initializer = varDeclaration();
+      initializer = at(line, varDeclaration());
     } else {
-      initializer = expressionStatement();
+      initializer = at(line, expressionStatement());
     }
 
     Expr condition = null;
@@ -197,14 +253,15 @@ class Parser {
     var body = statement();
 
     if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      var step = at(line, new Stmt.Expression(increment));
+      body = at(line, new Stmt.Block(Arrays.asList(body, step)));
     }
 
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = at(line, new Stmt.While(condition, body));
 
     if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
     }
 
     return body;
@@ -284,7 +341,10 @@ class Parser {
   }
 
   private Token peek() {
-    return tokens.get(current);
+    // Scanning lazily keeps a scan error in the next statement from being reported before the
+    // current one is complete.
+    if (next == null) next = tokens.get();
+    return next;
   }
 
   private Expr primary() {
@@ -296,6 +356,15 @@ class Parser {
       return new Expr.Literal(previous().getLiteral());
     }
 
+    if (match(TokenType.SUPER)) {
+      var keyword = previous();
+      consume(TokenType.DOT, "Expect '.' after 'super'.");
+      var method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+      return new Expr.Super(keyword, method);
+    }
+
+    if (match(TokenType.THIS)) return new Expr.This(previous());
+
     if (match(TokenType.IDENTIFIER)) {
       return new Expr.Variable(previous());
     }
@@ -310,7 +379,7 @@ class Parser {
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return previous;
   }
 
   private Stmt printStatement() {
@@ -331,14 +400,20 @@ class Parser {
   }
 
   private Stmt statement() {
-    if (match(TokenType.FOR)) return forStatement();
-    if (match(TokenType.IF)) return ifStatement();
-    if (match(TokenType.PRINT)) return printStatement();
-    if (match(TokenType.RETURN)) return returnStatement();
-    if (match(TokenType.WHILE)) return whileStatement();
-    if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
-
-    return expressionStatement();
+    var line = peek().getLine();
+    if (match(TokenType.FOR)) return at(line, forStatement());
+    if (match(TokenType.IF)) return at(line, ifStatement());
+    if (match(TokenType.PRINT)) return at(line, printStatement());
+    if (match(TokenType.RETURN)) return at(line, returnStatement());
+    if (match(TokenType.WHILE)) return at(line, whileStatement());
+    if (match(TokenType.LEFT_BRACE)) return at(line, new Stmt.Block(block()));
+
+    return at(line, expressionStatement());
+  }
+
+  private static <T extends Stmt> T at(int line, T stmt) {
+    stmt.setLine(line);
+    return stmt;
   }
 
   private void synchronize() {
@@ -0,0 +1,23 @@
+package dev.wilding.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("dev.wilding.lox.Phase")
+@Label("Lox Phase")
+@Category("Lox")
+class PhaseEvent extends jdk.jfr.Event {
+  @Label("Phase")
+  String phase;
+
+  @Label("CPU Time")
+  @Timespan
+  long cpuTime;
+
+  @Label("Allocated")
+  @DataAmount
+  long allocated;
+}
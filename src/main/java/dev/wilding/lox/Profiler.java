@@ -0,0 +1,193 @@
+package dev.wilding.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+class Profiler {
+  static final String SCRIPT = "<script>";
+  private static final int HOT_LINES = 20;
+  private static final double TREE_CUTOFF = 0.5;
+
+  private final long intervalNanos;
+  private final Map<String, Integer> samples = new HashMap<>();
+  private String[] names = new String[64];
+  private int[] lines = new int[64];
+  private volatile int depth;
+  private volatile boolean running;
+  private Thread sampler;
+  private int total;
+
+  Profiler(long intervalMicros) {
+    this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+    names[0] = SCRIPT;
+    depth = 1;
+  }
+
+  void enter(String name, int line) {
+    var top = depth;
+    if (top == names.length) {
+      lines = Arrays.copyOf(lines, top * 2);
+      names = Arrays.copyOf(names, top * 2);
+    }
+    names[top] = name;
+    lines[top] = line;
+    depth = top + 1;
+  }
+
+  void replace(String name, int line) {
+    names[depth - 1] = name;
+    lines[depth - 1] = line;
+  }
+
+  void exit() {
+    depth--;
+  }
+
+  void line(int line) {
+    if (line != 0) lines[depth - 1] = line;
+  }
+
+  void start() {
+    running = true;
+    sampler =
+        new Thread(
+            () -> {
+              while (running) {
+                LockSupport.parkNanos(intervalNanos);
+                sample();
+              }
+            },
+            "lox-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  void stop() {
+    running = false;
+    try {
+      sampler.join();
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sample() {
+    var top = depth;
+    var names = this.names;
+    var lines = this.lines;
+    top = Math.min(top, Math.min(names.length, lines.length));
+    if (top == 1 && lines[0] == 0) return;
+
+    var stack = new StringBuilder();
+    for (var i = 0; i < top; i++) {
+      if (i > 0) stack.append(';');
+      stack.append(names[i]).append(':').append(lines[i]);
+    }
+    synchronized (samples) {
+      samples.merge(stack.toString(), 1, Integer::sum);
+      total++;
+    }
+  }
+
+  void writeCollapsed(Path path) throws IOException {
+    var collapsed = new ArrayList<String>();
+    synchronized (samples) {
+      samples.forEach((stack, count) -> collapsed.add(stack + " " + count));
+    }
+    collapsed.sort(null);
+    Files.write(path, collapsed, StandardCharsets.UTF_8);
+  }
+
+  void report(PrintStream out) {
+    Map<String, Integer> stacks;
+    synchronized (samples) {
+      stacks = new HashMap<>(samples);
+    }
+    var micros = TimeUnit.NANOSECONDS.toMicros(intervalNanos);
+    out.printf("Profile: %d samples, one every %d us.%n", total, micros);
+    if (total == 0) return;
+
+    var self = new HashMap<String, Integer>();
+    var functions = new HashMap<String, int[]>();
+    var root = new Node(SCRIPT);
+    for (var entry : stacks.entrySet()) {
+      var frames = entry.getKey().split(";");
+      var count = entry.getValue();
+      self.merge(frames[frames.length - 1], count, Integer::sum);
+
+      var seen = new HashSet<String>();
+      var node = root;
+      for (var i = 0; i < frames.length; i++) {
+        var name = function(frames[i]);
+        var counts = functions.computeIfAbsent(name, key -> new int[2]);
+        if (seen.add(name)) counts[0] += count;
+        if (i == frames.length - 1) counts[1] += count;
+
+        if (i > 0) node = node.children.computeIfAbsent(name, Node::new);
+        node.total += count;
+        if (i == frames.length - 1) node.self += count;
+      }
+    }
+
+    out.printf("%nHot lines:%n  self%%  samples  line%n");
+    var hot = new ArrayList<>(self.entrySet());
+    hot.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+    for (var entry : hot.subList(0, Math.min(HOT_LINES, hot.size()))) {
+      var count = entry.getValue();
+      out.printf("%6.1f%% %8d  %s%n", percent(count), count, entry.getKey());
+    }
+
+    out.printf("%nFunctions:%n total%%   self%%  function%n");
+    var byTotal = new ArrayList<>(functions.entrySet());
+    byTotal.sort(Comparator.comparingInt(entry -> -entry.getValue()[0]));
+    for (var entry : byTotal) {
+      var counts = entry.getValue();
+      out.printf("%6.1f%% %6.1f%%  %s%n", percent(counts[0]), percent(counts[1]), entry.getKey());
+    }
+
+    out.printf("%nCall tree:%n total%%   self%%  function%n");
+    print(out, root, 0);
+  }
+
+  private void print(PrintStream out, Node node, int indent) {
+    out.printf(
+        "%6.1f%% %6.1f%%  %s%s%n",
+        percent(node.total), percent(node.self), "  ".repeat(indent), node.name);
+    var children = new ArrayList<>(node.children.values());
+    children.sort(Comparator.comparingInt((Node child) -> -child.total));
+    for (var child : children) {
+      if (percent(child.total) >= TREE_CUTOFF) print(out, child, indent + 1);
+    }
+  }
+
+  private double percent(int count) {
+    return 100.0 * count / total;
+  }
+
+  private static String function(String frame) {
+    return frame.substring(0, frame.lastIndexOf(':'));
+  }
+
+  private static class Node {
+    final String name;
+    final Map<String, Node> children = new LinkedHashMap<>();
+    int total;
+    int self;
+
+    Node(String name) {
+      this.name = name;
+    }
+  }
+}
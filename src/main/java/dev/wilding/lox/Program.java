@@ -0,0 +1,31 @@
+package dev.wilding.lox;
+
+import dev.wilding.lox.vm.CompiledFunction;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class Program {
+  @Getter(AccessLevel.PACKAGE)
+  private final LoxEngine.Backend backend;
+
+  private final ByteBuffer syntax;
+  @Getter(AccessLevel.PACKAGE)
+  private final CompiledFunction script;
+
+  @Getter(AccessLevel.PACKAGE)
+  private final Map<Integer, JitCode> compiledFunctions = new ConcurrentHashMap<>();
+
+  List<Stmt> statements() {
+    var statements = new ArrayList<Stmt>();
+    ProgramCache.decode(syntax, compiledFunctions).forEachRemaining(statements::add);
+    return statements;
+  }
+}
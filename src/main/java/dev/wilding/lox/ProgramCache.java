@@ -0,0 +1,678 @@
+package dev.wilding.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+class ProgramCache {
+  static final int VERSION = 4;
+
+  private static final int MAGIC = 0x4C4F5843;
+  private static final int HEADER_SIZE = 32;
+  private static final String EXTENSION = ".loxc";
+
+  private static final byte NULL = 0;
+  private static final byte ASSIGN = 1;
+  private static final byte BINARY = 2;
+  private static final byte CALL = 3;
+  private static final byte GET = 4;
+  private static final byte GROUPING = 5;
+  private static final byte INVOKE = 6;
+  private static final byte LITERAL = 7;
+  private static final byte LOGICAL = 8;
+  private static final byte SET = 9;
+  private static final byte SUPER = 10;
+  private static final byte THIS = 11;
+  private static final byte UNARY = 12;
+  private static final byte VARIABLE = 13;
+  private static final byte BLOCK = 20;
+  private static final byte CLASS = 21;
+  private static final byte EXPRESSION = 22;
+  private static final byte FUNCTION = 23;
+  private static final byte IF = 24;
+  private static final byte PRINT = 25;
+  private static final byte RETURN = 26;
+  private static final byte VAR = 27;
+  private static final byte WHILE = 28;
+
+  private static final byte NIL_VALUE = 0;
+  private static final byte FALSE_VALUE = 1;
+  private static final byte TRUE_VALUE = 2;
+  private static final byte NUMBER_VALUE = 3;
+  private static final byte STRING_VALUE = 4;
+
+  private final Path cache;
+  private final long length;
+  private final int checksum;
+
+  private ProgramCache(Path cache, long length, int checksum) {
+    this.cache = cache;
+    this.length = length;
+    this.checksum = checksum;
+  }
+
+  static ProgramCache forScript(Path script) throws IOException {
+    try (var channel = FileChannel.open(script, StandardOpenOption.READ)) {
+      var length = channel.size();
+      var crc = new CRC32C();
+      crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+      var name = script.getFileName().toString();
+      if (name.endsWith(".lox")) name = name.substring(0, name.length() - ".lox".length());
+      var cache = script.resolveSibling(name + EXTENSION);
+      return new ProgramCache(cache, length, (int) crc.getValue());
+    }
+  }
+
+  Iterator<Stmt> load() {
+    try (var channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+      var size = channel.size();
+      var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < HEADER_SIZE
+          || buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION
+          || buffer.getLong() != length
+          || buffer.getInt() != checksum
+          || buffer.getLong() != size
+          || buffer.getInt() != checksum(buffer.duplicate())) {
+        return null;
+      }
+      return new Reader(buffer, null);
+    } catch (IOException | RuntimeException error) {
+      return null;
+    }
+  }
+
+  void delete() {
+    try {
+      Files.deleteIfExists(cache);
+    } catch (IOException ignored) {
+      // The next store replaces it anyway.
+    }
+  }
+
+  static ByteBuffer encode(List<Stmt> statements) {
+    var writer = new Writer();
+    writer.statements(statements);
+    var strings = writer.stringTable();
+    var body = writer.body();
+    return ByteBuffer.allocate(strings.remaining() + body.remaining())
+        .put(strings)
+        .put(body)
+        .flip()
+        .asReadOnlyBuffer();
+  }
+
+  static Iterator<Stmt> decode(ByteBuffer encoded, Map<Integer, JitCode> sharedCode) {
+    return new Reader(encoded.duplicate(), sharedCode);
+  }
+
+  void store(List<Stmt> statements) {
+    var writer = new Writer();
+    writer.statements(statements);
+    var temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+    try (var channel =
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      var strings = writer.stringTable();
+      var body = writer.body();
+      long size = HEADER_SIZE + strings.remaining() + body.remaining();
+      var header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putLong(length).putInt(checksum).putLong(size);
+      header.putInt(checksum(strings.duplicate(), body.duplicate())).flip();
+      var buffers = new ByteBuffer[] {header, strings, body};
+      while (buffers[buffers.length - 1].hasRemaining()) channel.write(buffers);
+    } catch (IOException error) {
+      return;
+    }
+    try {
+      Files.move(
+          temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException error) {
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private static int checksum(ByteBuffer... buffers) {
+    var crc = new CRC32C();
+    for (var buffer : buffers) crc.update(buffer);
+    return (int) crc.getValue();
+  }
+
+  private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> table = new ArrayList<>();
+    private ByteBuffer out = ByteBuffer.allocate(1 << 16);
+
+    ByteBuffer stringTable() {
+      var encoded = new ArrayList<byte[]>(table.size());
+      var size = Integer.BYTES * (1 + table.size());
+      for (var string : table) {
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        encoded.add(bytes);
+        size += bytes.length;
+      }
+      var buffer = ByteBuffer.allocate(size).putInt(encoded.size());
+      var end = 0;
+      for (var bytes : encoded) buffer.putInt(end += bytes.length);
+      for (var bytes : encoded) buffer.put(bytes);
+      return buffer.flip();
+    }
+
+    ByteBuffer body() {
+      return out.flip();
+    }
+
+    void statements(List<? extends Stmt> statements) {
+      putVarint(statements.size());
+      for (var statement : statements) statement(statement);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      put(ASSIGN);
+      token(expr.getName());
+      expr(expr.getValue());
+      putVarint(expr.getDepth());
+      putVarint(expr.getSlot());
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      put(BINARY);
+      expr(expr.getLeft());
+      token(expr.getOperator());
+      expr(expr.getRight());
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      put(CALL);
+      expr(expr.getCallee());
+      token(expr.getParen());
+      exprs(expr.getArguments());
+      put(expr.isTail() ? (byte) 1 : (byte) 0);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      put(GET);
+      expr(expr.getObject());
+      token(expr.getName());
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      put(GROUPING);
+      expr(expr.getExpression());
+      return null;
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+      put(INVOKE);
+      expr(expr.getObject());
+      token(expr.getName());
+      token(expr.getParen());
+      exprs(expr.getArguments());
+      put(expr.isTail() ? (byte) 1 : (byte) 0);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      put(LITERAL);
+      value(expr.getValue());
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      put(LOGICAL);
+      expr(expr.getLeft());
+      token(expr.getOperator());
+      expr(expr.getRight());
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      put(SET);
+      expr(expr.getObject());
+      token(expr.getName());
+      expr(expr.getValue());
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      put(SUPER);
+      token(expr.getKeyword());
+      token(expr.getMethod());
+      putVarint(expr.getDepth());
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      put(THIS);
+      token(expr.getKeyword());
+      putVarint(expr.getDepth());
+      putVarint(expr.getSlot());
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      put(UNARY);
+      token(expr.getOperator());
+      expr(expr.getRight());
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      put(VARIABLE);
+      token(expr.getName());
+      putVarint(expr.getDepth());
+      putVarint(expr.getSlot());
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      put(BLOCK);
+      statements(stmt.getStatements());
+      putVarint(stmt.getSize());
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      put(CLASS);
+      token(stmt.getName());
+      expr(stmt.getSuperclass());
+      statements(stmt.getMethods());
+      putVarint(stmt.getSlot());
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      put(EXPRESSION);
+      expr(stmt.getExpression());
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      put(FUNCTION);
+      token(stmt.getName());
+      putVarint(stmt.getParams().size());
+      for (var param : stmt.getParams()) token(param);
+      statements(stmt.getBody());
+      putVarint(stmt.getSlot());
+      putVarint(stmt.getSize());
+      put(stmt.isMethod() ? (byte) 1 : (byte) 0);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      put(IF);
+      expr(stmt.getCondition());
+      statement(stmt.getThenBranch());
+      statement(stmt.getElseBranch());
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      put(PRINT);
+      expr(stmt.getExpression());
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      put(RETURN);
+      token(stmt.getKeyword());
+      expr(stmt.getValue());
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      put(VAR);
+      token(stmt.getName());
+      expr(stmt.getInitializer());
+      putVarint(stmt.getSlot());
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      put(WHILE);
+      expr(stmt.getCondition());
+      statement(stmt.getBody());
+      return null;
+    }
+
+    private void expr(Expr expr) {
+      if (expr == null) {
+        put(NULL);
+      } else {
+        expr.accept(this);
+      }
+    }
+
+    private void exprs(List<Expr> exprs) {
+      putVarint(exprs.size());
+      for (var expr : exprs) expr(expr);
+    }
+
+    private void statement(Stmt stmt) {
+      if (stmt == null) {
+        put(NULL);
+      } else {
+        stmt.accept(this);
+        putVarint(stmt.getLine());
+      }
+    }
+
+    private void token(Token token) {
+      put((byte) token.getType().ordinal());
+      string(token.getLexeme());
+      putVarint(token.getStart());
+      value(token.getLiteral());
+      putVarint(token.getLine());
+    }
+
+    private void value(Object value) {
+      if (value == null) {
+        put(NIL_VALUE);
+      } else if (value instanceof Boolean) {
+        put((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+      } else if (value instanceof Double) {
+        put(NUMBER_VALUE);
+        reserve(Double.BYTES);
+        out.putDouble((Double) value);
+      } else {
+        put(STRING_VALUE);
+        string((String) value);
+      }
+    }
+
+    private void string(String string) {
+      var index = strings.get(string);
+      if (index == null) {
+        index = table.size();
+        strings.put(string, index);
+        table.add(string);
+      }
+      putVarint(index);
+    }
+
+    private void put(byte value) {
+      reserve(1);
+      out.put(value);
+    }
+
+    private void putVarint(int value) {
+      reserve(5);
+      var bits = (value << 1) ^ (value >> 31);
+      while ((bits & ~0x7F) != 0) {
+        out.put((byte) ((bits & 0x7F) | 0x80));
+        bits >>>= 7;
+      }
+      out.put((byte) bits);
+    }
+
+    private void reserve(int bytes) {
+      if (out.remaining() >= bytes) return;
+      var grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+      out = grown.put(out.flip());
+    }
+  }
+
+  private static class Reader implements Iterator<Stmt> {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final Map<Integer, JitCode> sharedCode;
+    private final String[] strings;
+    private final int ends;
+    private final int characters;
+    private int remaining;
+
+    Reader(ByteBuffer in, Map<Integer, JitCode> sharedCode) {
+      this.in = in;
+      this.sharedCode = sharedCode;
+      this.strings = new String[in.getInt()];
+      this.ends = in.position();
+      this.characters = ends + Integer.BYTES * strings.length;
+      in.position(characters + end(strings.length - 1));
+      this.remaining = varint();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    public Stmt next() {
+      if (remaining-- <= 0) throw new NoSuchElementException();
+      return statement();
+    }
+
+    private List<Stmt> statements() {
+      var count = varint();
+      var statements = new ArrayList<Stmt>(count);
+      for (var i = 0; i < count; i++) statements.add(statement());
+      return statements;
+    }
+
+    private Stmt statement() {
+      var stmt = statementBody();
+      if (stmt != null) stmt.setLine(varint());
+      return stmt;
+    }
+
+    private Stmt statementBody() {
+      var tag = in.get();
+      switch (tag) {
+        case NULL:
+          return null;
+        case BLOCK:
+          {
+            var block = new Stmt.Block(statements());
+            block.setSize(varint());
+            return block;
+          }
+        case CLASS:
+          {
+            var name = token();
+            var superclass = (Expr.Variable) expr();
+            var methods = new ArrayList<Stmt.Function>();
+            for (var count = varint(); count > 0; count--) {
+              methods.add((Stmt.Function) statement());
+            }
+            var klass = new Stmt.Class(name, superclass, methods);
+            klass.setSlot(varint());
+            return klass;
+          }
+        case EXPRESSION:
+          return new Stmt.Expression(expr());
+        case FUNCTION:
+          {
+            var id = in.position();
+            var name = token();
+            var params = new ArrayList<Token>();
+            for (var count = varint(); count > 0; count--) params.add(token());
+            var function = new Stmt.Function(name, params, statements());
+            function.setSlot(varint());
+            function.setSize(varint());
+            function.setMethod(in.get() != 0);
+            // The offset is stable across decodes, so it names the function within its program.
+            if (sharedCode != null) function.share(sharedCode, id);
+            return function;
+          }
+        case IF:
+          return new Stmt.If(expr(), statement(), statement());
+        case PRINT:
+          return new Stmt.Print(expr());
+        case RETURN:
+          return new Stmt.Return(token(), expr());
+        case VAR:
+          {
+            var declaration = new Stmt.Var(token(), expr());
+            declaration.setSlot(varint());
+            return declaration;
+          }
+        case WHILE:
+          return new Stmt.While(expr(), statement());
+      }
+      throw new IllegalStateException("Unknown statement tag " + tag + ".");
+    }
+
+    private Expr expr() {
+      var tag = in.get();
+      switch (tag) {
+        case NULL:
+          return null;
+        case ASSIGN:
+          {
+            var assign = new Expr.Assign(token(), expr());
+            assign.setDepth(varint());
+            assign.setSlot(varint());
+            return assign;
+          }
+        case BINARY:
+          return new Expr.Binary(expr(), token(), expr());
+        case CALL:
+          {
+            var call = new Expr.Call(expr(), token(), exprs());
+            call.setTail(in.get() != 0);
+            return call;
+          }
+        case GET:
+          return new Expr.Get(expr(), token());
+        case GROUPING:
+          return new Expr.Grouping(expr());
+        case INVOKE:
+          {
+            var invoke = new Expr.Invoke(expr(), token(), token(), exprs());
+            invoke.setTail(in.get() != 0);
+            return invoke;
+          }
+        case LITERAL:
+          return new Expr.Literal(value());
+        case LOGICAL:
+          return new Expr.Logical(expr(), token(), expr());
+        case SET:
+          return new Expr.Set(expr(), token(), expr());
+        case SUPER:
+          {
+            var superExpr = new Expr.Super(token(), token());
+            superExpr.setDepth(varint());
+            return superExpr;
+          }
+        case THIS:
+          {
+            var thisExpr = new Expr.This(token());
+            thisExpr.setDepth(varint());
+            thisExpr.setSlot(varint());
+            return thisExpr;
+          }
+        case UNARY:
+          return new Expr.Unary(token(), expr());
+        case VARIABLE:
+          {
+            var variable = new Expr.Variable(token());
+            variable.setDepth(varint());
+            variable.setSlot(varint());
+            return variable;
+          }
+      }
+      throw new IllegalStateException("Unknown expression tag " + tag + ".");
+    }
+
+    private List<Expr> exprs() {
+      var count = varint();
+      var exprs = new ArrayList<Expr>(count);
+      for (var i = 0; i < count; i++) exprs.add(expr());
+      return exprs;
+    }
+
+    private Object value() {
+      switch (in.get()) {
+        case FALSE_VALUE:
+          return false;
+        case TRUE_VALUE:
+          return true;
+        case NUMBER_VALUE:
+          return in.getDouble();
+        case STRING_VALUE:
+          return string(varint());
+        default:
+          return null;
+      }
+    }
+
+    private Token token() {
+      var type = TOKEN_TYPES[in.get()];
+      var lexeme = string(varint());
+      return new Token(type, lexeme, varint(), value(), varint());
+    }
+
+    private String string(int index) {
+      var string = strings[index];
+      if (string == null) {
+        var start = end(index - 1);
+        var bytes = new byte[end(index) - start];
+        in.duplicate().position(characters + start).get(bytes);
+        string = new String(bytes, StandardCharsets.UTF_8);
+        strings[index] = string;
+      }
+      return string;
+    }
+
+    private int end(int index) {
+      return index < 0 ? 0 : in.getInt(ends + Integer.BYTES * index);
+    }
+
+    private int varint() {
+      var bits = 0;
+      var shift = 0;
+      byte next;
+      do {
+        next = in.get();
+        bits |= (next & 0x7F) << shift;
+        shift += 7;
+      } while (next < 0);
+      return (bits >>> 1) ^ -(bits & 1);
+    }
+  }
+}
@@ -0,0 +1,8 @@
+package dev.wilding.lox;
+
+class PropertyCache {
+  Shape shape;
+  Shape next;
+  int slot;
+  LoxFunction method;
+}
@@ -6,11 +6,13 @@ import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private final Stack<Map<String, Local>> scopes = new Stack<>();
+  private final ErrorReporter reporter;
   private FunctionType currentFunction = FunctionType.NONE;
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  private ClassType currentClass = ClassType.NONE;
+
+  Resolver(ErrorReporter reporter) {
+    this.reporter = reporter;
   }
 
   void resolve(Expr expr) {
@@ -30,7 +32,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.getValue());
-    resolveLocal(expr, expr.getName());
+    var depth = resolveLocal(expr.getName());
+    expr.setDepth(depth);
+    if (depth != Expr.GLOBAL) expr.setSlot(slot(depth, expr.getName()));
     return null;
   }
 
@@ -54,6 +58,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitGetExpr(Expr.Get expr) {
+    resolve(expr.getObject());
     return null;
   }
 
@@ -63,6 +68,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitInvokeExpr(Expr.Invoke expr) {
+    resolve(expr.getObject());
+
+    for (var argument : expr.getArguments()) {
+      resolve(argument);
+    }
+
+    return null;
+  }
+
   @Override
   public Void visitLiteralExpr(Expr.Literal expr) {
     return null;
@@ -77,16 +93,33 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitSetExpr(Expr.Set expr) {
+    resolve(expr.getValue());
+    resolve(expr.getObject());
     return null;
   }
 
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
+    if (currentClass == ClassType.NONE) {
+      reporter.error(expr.getKeyword(), "Cannot use 'super' outside of a class.");
+    } else if (currentClass != ClassType.SUBCLASS) {
+      reporter.error(expr.getKeyword(), "Cannot use 'super' in a class with no superclass.");
+    }
+
+    expr.setDepth(resolveLocal(expr.getKeyword()));
     return null;
   }
 
   @Override
   public Void visitThisExpr(Expr.This expr) {
+    if (currentClass == ClassType.NONE) {
+      reporter.error(expr.getKeyword(), "Cannot use 'this' outside of a class.");
+      return null;
+    }
+
+    var depth = resolveLocal(expr.getKeyword());
+    expr.setDepth(depth);
+    expr.setSlot(slot(depth, expr.getKeyword()));
     return null;
   }
 
@@ -98,10 +131,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.getName().getLexeme()) == Boolean.FALSE) {
-      Lox.error(expr.getName(), "Cannot read local variable in its own initializer.");
+    if (!scopes.isEmpty()) {
+      var local = scopes.peek().get(expr.getName().getLexeme());
+      if (local != null && !local.defined) {
+        reporter.error(expr.getName(), "Cannot read local variable in its own initializer.");
+      }
     }
-    resolveLocal(expr, expr.getName());
+    var depth = resolveLocal(expr.getName());
+    expr.setDepth(depth);
+    if (depth != Expr.GLOBAL) expr.setSlot(slot(depth, expr.getName()));
     return null;
   }
 
@@ -109,12 +147,44 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
     resolve(stmt.getStatements());
+    stmt.setSize(scopes.peek().size());
     endScope();
     return null;
   }
 
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
+    var enclosingClass = currentClass;
+    currentClass = ClassType.CLASS;
+
+    var name = stmt.getName();
+    stmt.setSlot(declare(name));
+    define(name);
+
+    var superclass = stmt.getSuperclass();
+    if (superclass != null) {
+      if (name.getLexeme().equals(superclass.getName().getLexeme())) {
+        reporter.error(superclass.getName(), "A class cannot inherit from itself.");
+      }
+
+      currentClass = ClassType.SUBCLASS;
+      resolve(superclass);
+
+      beginScope();
+      declareImplicit("super");
+    }
+
+    for (var method : stmt.getMethods()) {
+      var type = FunctionType.METHOD;
+      if (method.getName().getLexeme().equals("init")) {
+        type = FunctionType.INITIALIZER;
+      }
+      resolveFunction(method, type);
+    }
+
+    if (superclass != null) endScope();
+
+    currentClass = enclosingClass;
     return null;
   }
 
@@ -127,7 +197,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
     var name = stmt.getName();
-    declare(name);
+    stmt.setSlot(declare(name));
     define(name);
 
     resolveFunction(stmt, FunctionType.FUNCTION);
@@ -152,19 +222,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.getKeyword(), "Cannot return from top-level code.");
+      reporter.error(stmt.getKeyword(), "Cannot return from top-level code.");
     }
 
     var value = stmt.getValue();
     if (value != null) {
+      if (currentFunction == FunctionType.INITIALIZER) {
+        reporter.error(stmt.getKeyword(), "Cannot return a value from an initializer.");
+      }
+
       resolve(value);
+      if (value instanceof Expr.Call) {
+        ((Expr.Call) value).setTail(true);
+      } else if (value instanceof Expr.Invoke) {
+        ((Expr.Invoke) value).setTail(true);
+      }
     }
     return null;
   }
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.getName());
+    stmt.setSlot(declare(stmt.getName()));
     var initializer = stmt.getInitializer();
     if (initializer != null) {
       resolve(initializer);
@@ -181,23 +260,34 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    scopes.push(new HashMap<String, Local>());
   }
 
-  private void declare(Token name) {
-    if (scopes.isEmpty()) return;
+  private int declare(Token name) {
+    if (scopes.isEmpty()) return Expr.GLOBAL;
 
     var scope = scopes.peek();
     var lexeme = name.getLexeme();
-    if (scope.containsKey(lexeme)) {
-      Lox.error(name, "Variable with this name already declared in this scope.");
+    var existing = scope.get(lexeme);
+    if (existing != null) {
+      reporter.error(name, "Variable with this name already declared in this scope.");
+      return existing.slot;
     }
-    scope.put(lexeme, false);
+
+    var slot = scope.size();
+    scope.put(lexeme, new Local(slot));
+    return slot;
+  }
+
+  private void declareImplicit(String name) {
+    var local = new Local(scopes.peek().size());
+    local.defined = true;
+    scopes.peek().put(name, local);
   }
 
   private void define(Token name) {
     if (scopes.isEmpty()) return;
-    scopes.peek().put(name.getLexeme(), true);
+    scopes.peek().get(name.getLexeme()).defined = true;
   }
 
   private void endScope() {
@@ -209,27 +299,54 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     currentFunction = type;
 
     beginScope();
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      function.setMethod(true);
+      declareImplicit("this");
+    }
     for (var param : function.getParams()) {
       declare(param);
       define(param);
     }
     resolve(function.getBody());
+    function.setSize(scopes.peek().size());
     endScope();
 
     currentFunction = enclosingFunction;
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  private int resolveLocal(Token name) {
     for (var i = scopes.size() - 1; i >= 0; i--) {
       if (scopes.get(i).containsKey(name.getLexeme())) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+        return scopes.size() - 1 - i;
       }
     }
+
+    return Expr.GLOBAL;
+  }
+
+  private int slot(int depth, Token name) {
+    return scopes.get(scopes.size() - 1 - depth).get(name.getLexeme()).slot;
+  }
+
+  private enum ClassType {
+    NONE,
+    CLASS,
+    SUBCLASS
   }
 
   private enum FunctionType {
     NONE,
-    FUNCTION
+    FUNCTION,
+    INITIALIZER,
+    METHOD
+  }
+
+  private static class Local {
+    final int slot;
+    boolean defined = false;
+
+    Local(int slot) {
+      this.slot = slot;
+    }
   }
 }
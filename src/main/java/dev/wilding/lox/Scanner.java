@@ -2,46 +2,44 @@ package dev.wilding.lox;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 class Scanner {
-  private static final Map<String, TokenType> keywords =
-      Map.ofEntries(
-          Map.entry("and", TokenType.AND),
-          Map.entry("class", TokenType.CLASS),
-          Map.entry("else", TokenType.ELSE),
-          Map.entry("false", TokenType.FALSE),
-          Map.entry("for", TokenType.FOR),
-          Map.entry("fun", TokenType.FUN),
-          Map.entry("if", TokenType.IF),
-          Map.entry("nil", TokenType.NIL),
-          Map.entry("or", TokenType.OR),
-          Map.entry("print", TokenType.PRINT),
-          Map.entry("return", TokenType.RETURN),
-          Map.entry("super", TokenType.SUPER),
-          Map.entry("this", TokenType.THIS),
-          Map.entry("true", TokenType.TRUE),
-          Map.entry("var", TokenType.VAR),
-          Map.entry("while", TokenType.WHILE));
-
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  private final CharSequence source;
+  private final ErrorReporter reporter;
+  private Token token;
   private int start = 0;
   private int current = 0;
   private int line = 1;
 
-  Scanner(String source) {
+  Scanner(CharSequence source, ErrorReporter reporter) {
     this.source = source;
+    this.reporter = reporter;
   }
 
   List<Token> scanTokens() {
+    var tokens = new ArrayList<Token>();
+    Token next;
+    do {
+      next = nextToken();
+      tokens.add(next);
+    } while (next.getType() != TokenType.EOF);
+    return tokens;
+  }
+
+  Token nextToken() {
     while (!isAtEnd()) {
       start = current;
       scanToken();
+      if (token != null) {
+        var next = token;
+        token = null;
+        return next;
+      }
     }
 
-    tokens.add(new Token(TokenType.EOF, "", null, line));
-    return tokens;
+    return new Token(TokenType.EOF, source, current, 0, null, line);
   }
 
   private void addToken(TokenType type) {
@@ -49,8 +47,7 @@ class Scanner {
   }
 
   private void addToken(TokenType type, Object literal) {
-    var text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    token = new Token(type, source, start, current - start, literal, line);
   }
 
   private char advance() {
@@ -61,9 +58,65 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    var text = source.substring(start, current);
-    var type = keywords.getOrDefault(text, TokenType.IDENTIFIER);
-    addToken(type);
+    addToken(identifierType());
+  }
+
+  private TokenType identifierType() {
+    switch (source.charAt(start)) {
+      case 'a':
+        return checkKeyword(1, "nd", TokenType.AND);
+      case 'c':
+        return checkKeyword(1, "lass", TokenType.CLASS);
+      case 'e':
+        return checkKeyword(1, "lse", TokenType.ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a':
+              return checkKeyword(2, "lse", TokenType.FALSE);
+            case 'o':
+              return checkKeyword(2, "r", TokenType.FOR);
+            case 'u':
+              return checkKeyword(2, "n", TokenType.FUN);
+          }
+        }
+        break;
+      case 'i':
+        return checkKeyword(1, "f", TokenType.IF);
+      case 'n':
+        return checkKeyword(1, "il", TokenType.NIL);
+      case 'o':
+        return checkKeyword(1, "r", TokenType.OR);
+      case 'p':
+        return checkKeyword(1, "rint", TokenType.PRINT);
+      case 'r':
+        return checkKeyword(1, "eturn", TokenType.RETURN);
+      case 's':
+        return checkKeyword(1, "uper", TokenType.SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h':
+              return checkKeyword(2, "is", TokenType.THIS);
+            case 'r':
+              return checkKeyword(2, "ue", TokenType.TRUE);
+          }
+        }
+        break;
+      case 'v':
+        return checkKeyword(1, "ar", TokenType.VAR);
+      case 'w':
+        return checkKeyword(1, "hile", TokenType.WHILE);
+    }
+    return TokenType.IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+    for (var i = 0; i < rest.length(); i++) {
+      if (source.charAt(start + offset + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+    }
+    return type;
   }
 
   private boolean isAlpha(char c) {
@@ -96,9 +149,16 @@ class Scanner {
     if (peek() == '.' && isDigit(peekNext())) {
       advance();
       while (isDigit(peek())) advance();
+    } else if (current - start <= MAX_EXACT_DIGITS) {
+      long value = 0;
+      for (var i = start; i < current; i++) {
+        value = value * 10 + (source.charAt(i) - '0');
+      }
+      addToken(TokenType.NUMBER, (double) value);
+      return;
     }
 
-    addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+    addToken(TokenType.NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
   }
 
   private char peek() {
@@ -179,7 +239,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
         break;
     }
@@ -192,13 +252,13 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated stirng.");
+      reporter.error(line, "Unterminated stirng.");
       return;
     }
 
     advance();
 
-    var value = source.substring(start + 1, current - 1);
+    var value = source.subSequence(start + 1, current - 1).toString();
     addToken(TokenType.STRING, value);
   }
 }
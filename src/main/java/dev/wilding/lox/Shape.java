@@ -0,0 +1,36 @@
+package dev.wilding.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class Shape {
+  private final Map<String, Integer> slots;
+  private final Map<String, Shape> transitions = new HashMap<>();
+
+  Shape() {
+    this(Map.of());
+  }
+
+  private Shape(Map<String, Integer> slots) {
+    this.slots = slots;
+  }
+
+  int size() {
+    return slots.size();
+  }
+
+  int slot(String name) {
+    var slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  Shape with(String name) {
+    return transitions.computeIfAbsent(
+        name,
+        key -> {
+          var next = new HashMap<>(slots);
+          next.put(key, slots.size());
+          return new Shape(next);
+        });
+  }
+}
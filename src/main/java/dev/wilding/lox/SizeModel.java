@@ -0,0 +1,49 @@
+package dev.wilding.lox;
+
+import lombok.Value;
+
+@Value
+class SizeModel {
+  static final SizeModel COMPRESSED = new SizeModel("compressed", 12, 16, 4, 8);
+  static final SizeModel UNCOMPRESSED = new SizeModel("uncompressed", 16, 24, 8, 8);
+
+  String name;
+  int header;
+  int arrayHeader;
+  int reference;
+  int alignment;
+
+  static SizeModel fromName(String name) {
+    if (name.equals(COMPRESSED.name)) return COMPRESSED;
+    if (name.equals(UNCOMPRESSED.name)) return UNCOMPRESSED;
+
+    var fields = name.split(",");
+    if (fields.length != 4) return null;
+    try {
+      return new SizeModel(
+          name,
+          Integer.parseInt(fields[0]),
+          Integer.parseInt(fields[1]),
+          Integer.parseInt(fields[2]),
+          Integer.parseInt(fields[3]));
+    } catch (NumberFormatException error) {
+      return null;
+    }
+  }
+
+  long object(int references, int primitiveBytes) {
+    return align(header + (long) references * reference + primitiveBytes);
+  }
+
+  long array(int length, int elementBytes) {
+    return align(arrayHeader + (long) length * elementBytes);
+  }
+
+  long references(int length) {
+    return array(length, reference);
+  }
+
+  private long align(long bytes) {
+    return (bytes + alignment - 1) / alignment * alignment;
+  }
+}
@@ -0,0 +1,77 @@
+package dev.wilding.lox;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class SourceFile {
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  private SourceFile() {}
+
+  static CharSequence map(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(path + " is too large to load (" + size + " bytes).");
+      }
+      var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      skipByteOrderMark(bytes);
+      if (isAscii(bytes)) return new Ascii(bytes.slice());
+      return StandardCharsets.UTF_8.newDecoder().decode(bytes);
+    }
+  }
+
+  private static void skipByteOrderMark(ByteBuffer bytes) {
+    if (bytes.remaining() >= 3
+        && bytes.get(0) == (byte) 0xEF
+        && bytes.get(1) == (byte) 0xBB
+        && bytes.get(2) == (byte) 0xBF) {
+      bytes.position(3);
+    }
+  }
+
+  private static boolean isAscii(ByteBuffer bytes) {
+    var i = bytes.position();
+    var limit = bytes.limit();
+    for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+      if ((bytes.getLong(i) & HIGH_BITS) != 0) return false;
+    }
+    for (; i < limit; i++) {
+      if (bytes.get(i) < 0) return false;
+    }
+    return true;
+  }
+
+  @RequiredArgsConstructor
+  private static class Ascii implements CharSequence {
+    private final ByteBuffer bytes;
+
+    @Override
+    public int length() {
+      return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) bytes.get(index);
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+      var chars = new byte[end - start];
+      bytes.duplicate().position(start).get(chars);
+      return new String(chars, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length());
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package dev.wilding.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+class Stats {
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  final long[] wallNanos = new long[Phase.values().length];
+  final long[] cpuNanos = new long[Phase.values().length];
+  final long[] allocatedBytes = new long[Phase.values().length];
+  long statements;
+  long calls;
+  long depth;
+  long maxDepth;
+  long environments;
+  long runtimeErrors;
+
+  <T> T time(Phase phase, Supplier<T> work) {
+    var event = new PhaseEvent();
+    event.begin();
+    var thread = Thread.currentThread().getId();
+    var wall = System.nanoTime();
+    var cpu = THREADS.getCurrentThreadCpuTime();
+    var allocated = THREADS.getThreadAllocatedBytes(thread);
+    try {
+      return work.get();
+    } finally {
+      wall = System.nanoTime() - wall;
+      cpu = THREADS.getCurrentThreadCpuTime() - cpu;
+      allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+      wallNanos[phase.ordinal()] += wall;
+      cpuNanos[phase.ordinal()] += cpu;
+      allocatedBytes[phase.ordinal()] += allocated;
+
+      event.end();
+      if (event.shouldCommit()) {
+        event.phase = phase.getName();
+        event.cpuTime = cpu;
+        event.allocated = allocated;
+        event.commit();
+      }
+    }
+  }
+
+  void time(Phase phase, Runnable work) {
+    time(
+        phase,
+        () -> {
+          work.run();
+          return null;
+        });
+  }
+
+  void enter() {
+    calls++;
+    environments++;
+    if (++depth > maxDepth) maxDepth = depth;
+  }
+
+  void tailCall() {
+    calls++;
+    environments++;
+  }
+
+  void exit() {
+    depth--;
+  }
+
+  void add(Stats other) {
+    for (var i = 0; i < wallNanos.length; i++) {
+      wallNanos[i] += other.wallNanos[i];
+      cpuNanos[i] += other.cpuNanos[i];
+      allocatedBytes[i] += other.allocatedBytes[i];
+    }
+    statements += other.statements;
+    calls += other.calls;
+    maxDepth = Math.max(maxDepth, other.maxDepth);
+    environments += other.environments;
+    runtimeErrors += other.runtimeErrors;
+  }
+
+  void report(PrintStream out) {
+    out.printf("%n%-8s %12s %12s %16s%n", "phase", "wall ms", "cpu ms", "allocated bytes");
+    for (var phase : Phase.values()) {
+      var i = phase.ordinal();
+      if (wallNanos[i] == 0) continue;
+      out.printf(
+          "%-8s %12.2f %12.2f %,16d%n",
+          phase.getName(), wallNanos[i] / 1e6, cpuNanos[i] / 1e6, allocatedBytes[i]);
+    }
+    out.printf(
+        "%nstatements %,d, calls %,d, max call depth %,d, environments %,d, runtime errors %,d%n",
+        statements,
+        calls,
+        maxDepth,
+        environments,
+        runtimeErrors);
+  }
+
+  enum Phase {
+    SCAN,
+    PARSE,
+    RESOLVE,
+    COMPILE,
+    EXECUTE;
+
+    String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+}
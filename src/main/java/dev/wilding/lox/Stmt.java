@@ -1,10 +1,19 @@
 package dev.wilding.lox;
 
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 
 import java.util.List;
+import java.util.Map;
 
 abstract class Stmt {
+  @Getter @Setter private int line;
+
   abstract <R> R accept(Visitor<R> visitor);
 
   interface Visitor<R> {
@@ -28,9 +37,12 @@ abstract class Stmt {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Block extends Stmt {
     List<Stmt> statements;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int size;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
@@ -38,11 +50,14 @@ abstract class Stmt {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Class extends Stmt {
     Token name;
     Expr.Variable superclass;
     List<Stmt.Function> methods;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot = Expr.GLOBAL;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
@@ -60,11 +75,29 @@ abstract class Stmt {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Function extends Stmt {
     Token name;
     List<Token> params;
     List<Stmt> body;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot = Expr.GLOBAL;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int size;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude boolean method;
+    @NonFinal @EqualsAndHashCode.Exclude @ToString.Exclude int calls;
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude JitCode compiled;
+    @NonFinal @EqualsAndHashCode.Exclude @ToString.Exclude Map<Integer, JitCode> sharedCode;
+    @NonFinal @EqualsAndHashCode.Exclude @ToString.Exclude int id;
+
+    int countCall() {
+      return ++calls;
+    }
+
+    void share(Map<Integer, JitCode> sharedCode, int id) {
+      this.sharedCode = sharedCode;
+      this.id = id;
+    }
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
@@ -105,10 +138,13 @@ abstract class Stmt {
   }
 
   @Value
+  @RequiredArgsConstructor
   static class Var extends Stmt {
     Token name;
     Expr initializer;
 
+    @NonFinal @Setter @EqualsAndHashCode.Exclude @ToString.Exclude int slot = Expr.GLOBAL;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVarStmt(this);
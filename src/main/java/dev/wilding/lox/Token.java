@@ -1,11 +1,33 @@
 package dev.wilding.lox;
 
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 
 @Value
+@RequiredArgsConstructor
 class Token {
   TokenType type;
-  String lexeme;
+  @EqualsAndHashCode.Exclude @ToString.Exclude CharSequence source;
+  int start;
+  int length;
   Object literal;
   int line;
+
+  @NonFinal String lexeme;
+
+  Token(TokenType type, String lexeme, int start, Object literal, int line) {
+    this(type, lexeme, start, lexeme.length(), literal, line);
+    this.lexeme = lexeme;
+  }
+
+  @EqualsAndHashCode.Include(replaces = "lexeme")
+  String getLexeme() {
+    if (lexeme == null) {
+      lexeme = source.subSequence(start, start + length).toString();
+    }
+    return lexeme;
+  }
 }
@@ -0,0 +1,49 @@
+package dev.wilding.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class Chunk {
+  public static final int MAX_CONSTANTS = 65536;
+
+  private final Map<Object, Integer> constantIndexes = new HashMap<>();
+  byte[] code = new byte[16];
+  int[] lines = new int[16];
+  int count = 0;
+  Object[] constants = new Object[8];
+  long[] values = new long[8];
+  int constantCount = 0;
+
+  public int addConstant(Object value) {
+    var existing = constantIndexes.get(value);
+    if (existing != null) return existing;
+
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, constantCount * 2);
+      values = Arrays.copyOf(values, constantCount * 2);
+    }
+    constants[constantCount] = value;
+    values[constantCount] = Value.of(value);
+    constantIndexes.put(value, constantCount);
+    return constantCount++;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public void patch(int offset, int value) {
+    code[offset] = (byte) value;
+  }
+
+  public void write(int value, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = (byte) value;
+    lines[count] = line;
+    count++;
+  }
+}
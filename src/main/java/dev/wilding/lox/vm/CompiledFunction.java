@@ -0,0 +1,27 @@
+package dev.wilding.lox.vm;
+
+public final class CompiledFunction {
+  final String name;
+  final int arity;
+  final Chunk chunk = new Chunk();
+  int upvalueCount = 0;
+
+  public CompiledFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  public Chunk getChunk() {
+    return chunk;
+  }
+
+  public void setUpvalueCount(int upvalueCount) {
+    this.upvalueCount = upvalueCount;
+  }
+
+  @Override
+  public String toString() {
+    if (name == null) return "<script>";
+    return String.format("<fn %s>", name);
+  }
+}
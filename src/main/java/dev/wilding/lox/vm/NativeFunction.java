@@ -0,0 +1,7 @@
+package dev.wilding.lox.vm;
+
+public interface NativeFunction {
+  int arity();
+
+  Object call(Object[] arguments);
+}
@@ -0,0 +1,37 @@
+package dev.wilding.lox.vm;
+
+public final class OpCode {
+  public static final byte CONSTANT = 0;
+  public static final byte NIL = 1;
+  public static final byte TRUE = 2;
+  public static final byte FALSE = 3;
+  public static final byte POP = 4;
+  public static final byte GET_LOCAL = 5;
+  public static final byte SET_LOCAL = 6;
+  public static final byte GET_GLOBAL = 7;
+  public static final byte DEFINE_GLOBAL = 8;
+  public static final byte SET_GLOBAL = 9;
+  public static final byte GET_UPVALUE = 10;
+  public static final byte SET_UPVALUE = 11;
+  public static final byte EQUAL = 12;
+  public static final byte GREATER = 13;
+  public static final byte GREATER_EQUAL = 14;
+  public static final byte LESS = 15;
+  public static final byte LESS_EQUAL = 16;
+  public static final byte ADD = 17;
+  public static final byte SUBTRACT = 18;
+  public static final byte MULTIPLY = 19;
+  public static final byte DIVIDE = 20;
+  public static final byte NOT = 21;
+  public static final byte NEGATE = 22;
+  public static final byte PRINT = 23;
+  public static final byte JUMP = 24;
+  public static final byte JUMP_IF_FALSE = 25;
+  public static final byte LOOP = 26;
+  public static final byte CALL = 27;
+  public static final byte CLOSURE = 28;
+  public static final byte CLOSE_UPVALUE = 29;
+  public static final byte RETURN = 30;
+
+  private OpCode() {}
+}
@@ -0,0 +1,21 @@
+package dev.wilding.lox.vm;
+
+final class Upvalue {
+  static final int CLOSED = -1;
+
+  int slot;
+  long value;
+  Object ref;
+  Upvalue next;
+
+  Upvalue(int slot, Upvalue next) {
+    this.slot = slot;
+    this.next = next;
+  }
+
+  void close(long[] stack, Object[] refs) {
+    value = stack[slot];
+    ref = refs[slot];
+    slot = CLOSED;
+  }
+}
@@ -0,0 +1,451 @@
+package dev.wilding.lox.vm;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class VM {
+  private static final int FRAMES_MAX = 16384;
+
+  private final Map<String, Global> globals = new HashMap<>();
+  private long[] stack = new long[256];
+  private Object[] refs = new Object[256];
+  private int sp = 0;
+  private Closure[] frameClosures = new Closure[64];
+  private int[] frameIps = new int[64];
+  private int[] frameBases = new int[64];
+  private int frameCount = 0;
+  private final PrintStream out;
+  private Upvalue openUpvalues;
+  private volatile boolean cancelled;
+
+  public VM() {
+    this(System.out);
+  }
+
+  public VM(PrintStream out) {
+    this.out = out;
+    defineNative(
+        "clock",
+        new NativeFunction() {
+          @Override
+          public int arity() {
+            return 0;
+          }
+
+          @Override
+          public Object call(Object[] arguments) {
+            return (double) System.currentTimeMillis() / 1000.0;
+          }
+        });
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public void resetCancelled() {
+    cancelled = false;
+  }
+
+  public void defineNative(String name, NativeFunction function) {
+    globals.put(name, new Global(Value.OBJECT, function));
+  }
+
+  public void interpret(CompiledFunction script) {
+    var closure = new Closure(script);
+    push(Value.OBJECT, closure);
+    call(closure, 0, 0);
+
+    try {
+      run();
+    } catch (VmError error) {
+      sp = 0;
+      frameCount = 0;
+      openUpvalues = null;
+      throw error;
+    }
+  }
+
+  private void run() {
+    var closure = frameClosures[frameCount - 1];
+    var code = closure.function.chunk.code;
+    var constants = closure.function.chunk.constants;
+    var values = closure.function.chunk.values;
+    var base = frameBases[frameCount - 1];
+    var ip = frameIps[frameCount - 1];
+
+    for (; ; ) {
+      switch (code[ip++]) {
+        case OpCode.CONSTANT:
+          {
+            var index = readShort(code, ip);
+            ip += 2;
+            push(values[index], constants[index]);
+            break;
+          }
+        case OpCode.NIL:
+          push(Value.NIL, null);
+          break;
+        case OpCode.TRUE:
+          push(Value.TRUE, null);
+          break;
+        case OpCode.FALSE:
+          push(Value.FALSE, null);
+          break;
+        case OpCode.POP:
+          sp--;
+          break;
+        case OpCode.GET_LOCAL:
+          {
+            var slot = base + (code[ip++] & 0xff);
+            push(stack[slot], refs[slot]);
+            break;
+          }
+        case OpCode.SET_LOCAL:
+          {
+            var slot = base + (code[ip++] & 0xff);
+            stack[slot] = stack[sp - 1];
+            refs[slot] = refs[sp - 1];
+            break;
+          }
+        case OpCode.GET_GLOBAL:
+          {
+            var name = (String) constants[readShort(code, ip)];
+            ip += 2;
+            var global = globals.get(name);
+            if (global == null) {
+              throw error(closure, ip, String.format("Undefined variable '%s'.", name));
+            }
+            push(global.value, global.ref);
+            break;
+          }
+        case OpCode.DEFINE_GLOBAL:
+          {
+            var name = (String) constants[readShort(code, ip)];
+            ip += 2;
+            sp--;
+            var global = globals.get(name);
+            if (global == null) {
+              globals.put(name, new Global(stack[sp], refs[sp]));
+            } else {
+              global.value = stack[sp];
+              global.ref = refs[sp];
+            }
+            break;
+          }
+        case OpCode.SET_GLOBAL:
+          {
+            var name = (String) constants[readShort(code, ip)];
+            ip += 2;
+            var global = globals.get(name);
+            if (global == null) {
+              throw error(closure, ip, String.format("Undefined variable '%s'.", name));
+            }
+            global.value = stack[sp - 1];
+            global.ref = refs[sp - 1];
+            break;
+          }
+        case OpCode.GET_UPVALUE:
+          {
+            var upvalue = closure.upvalues[code[ip++] & 0xff];
+            if (upvalue.slot == Upvalue.CLOSED) {
+              push(upvalue.value, upvalue.ref);
+            } else {
+              push(stack[upvalue.slot], refs[upvalue.slot]);
+            }
+            break;
+          }
+        case OpCode.SET_UPVALUE:
+          {
+            var upvalue = closure.upvalues[code[ip++] & 0xff];
+            if (upvalue.slot == Upvalue.CLOSED) {
+              upvalue.value = stack[sp - 1];
+              upvalue.ref = refs[sp - 1];
+            } else {
+              stack[upvalue.slot] = stack[sp - 1];
+              refs[upvalue.slot] = refs[sp - 1];
+            }
+            break;
+          }
+        case OpCode.EQUAL:
+          sp--;
+          stack[sp - 1] = Value.bool(isEqual(sp - 1, sp));
+          refs[sp - 1] = null;
+          break;
+        case OpCode.GREATER:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.bool(number(sp - 2) > number(sp - 1));
+          sp--;
+          break;
+        case OpCode.GREATER_EQUAL:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.bool(number(sp - 2) >= number(sp - 1));
+          sp--;
+          break;
+        case OpCode.LESS:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.bool(number(sp - 2) < number(sp - 1));
+          sp--;
+          break;
+        case OpCode.LESS_EQUAL:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.bool(number(sp - 2) <= number(sp - 1));
+          sp--;
+          break;
+        case OpCode.ADD:
+          {
+            var right = stack[sp - 1];
+            var left = stack[sp - 2];
+            if (Value.isNumber(left) && Value.isNumber(right)) {
+              stack[sp - 2] = Value.number(Value.asNumber(left) + Value.asNumber(right));
+            } else if (left == Value.OBJECT
+                && right == Value.OBJECT
+                && refs[sp - 2] instanceof String
+                && refs[sp - 1] instanceof String) {
+              refs[sp - 2] = (String) refs[sp - 2] + (String) refs[sp - 1];
+            } else {
+              throw error(closure, ip, "Operands must be two numbers or two strings.");
+            }
+            sp--;
+            break;
+          }
+        case OpCode.SUBTRACT:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.number(number(sp - 2) - number(sp - 1));
+          sp--;
+          break;
+        case OpCode.MULTIPLY:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.number(number(sp - 2) * number(sp - 1));
+          sp--;
+          break;
+        case OpCode.DIVIDE:
+          checkNumberOperands(closure, ip);
+          stack[sp - 2] = Value.number(number(sp - 2) / number(sp - 1));
+          sp--;
+          break;
+        case OpCode.NOT:
+          stack[sp - 1] = Value.bool(Value.isFalsey(stack[sp - 1]));
+          refs[sp - 1] = null;
+          break;
+        case OpCode.NEGATE:
+          if (!Value.isNumber(stack[sp - 1])) {
+            throw error(closure, ip, "Operand must be a number.");
+          }
+          stack[sp - 1] = Value.number(-number(sp - 1));
+          break;
+        case OpCode.PRINT:
+          sp--;
+          out.println(stringify(stack[sp], refs[sp]));
+          break;
+        case OpCode.JUMP:
+          ip += readShort(code, ip) + 2;
+          break;
+        case OpCode.JUMP_IF_FALSE:
+          if (Value.isFalsey(stack[sp - 1])) {
+            ip += readShort(code, ip) + 2;
+          } else {
+            ip += 2;
+          }
+          break;
+        case OpCode.LOOP:
+          if (cancelled) throw error(closure, ip, "Execution cancelled.");
+          ip -= readShort(code, ip) - 2;
+          break;
+        case OpCode.CALL:
+          {
+            if (cancelled) throw error(closure, ip, "Execution cancelled.");
+            var argCount = code[ip++] & 0xff;
+            frameIps[frameCount - 1] = ip;
+            callValue(closure, ip, argCount);
+            closure = frameClosures[frameCount - 1];
+            code = closure.function.chunk.code;
+            constants = closure.function.chunk.constants;
+            values = closure.function.chunk.values;
+            base = frameBases[frameCount - 1];
+            ip = frameIps[frameCount - 1];
+            break;
+          }
+        case OpCode.CLOSURE:
+          {
+            var function = (CompiledFunction) constants[readShort(code, ip)];
+            ip += 2;
+            var created = new Closure(function);
+            for (var i = 0; i < created.upvalues.length; i++) {
+              var isLocal = code[ip++];
+              var index = code[ip++] & 0xff;
+              if (isLocal == 1) {
+                created.upvalues[i] = captureUpvalue(base + index);
+              } else {
+                created.upvalues[i] = closure.upvalues[index];
+              }
+            }
+            push(Value.OBJECT, created);
+            break;
+          }
+        case OpCode.CLOSE_UPVALUE:
+          closeUpvalues(sp - 1);
+          sp--;
+          break;
+        case OpCode.RETURN:
+          {
+            sp--;
+            var result = stack[sp];
+            var resultRef = refs[sp];
+            closeUpvalues(base);
+            frameCount--;
+            if (frameCount == 0) {
+              sp = 0;
+              return;
+            }
+
+            sp = base;
+            push(result, resultRef);
+            closure = frameClosures[frameCount - 1];
+            code = closure.function.chunk.code;
+            constants = closure.function.chunk.constants;
+            values = closure.function.chunk.values;
+            base = frameBases[frameCount - 1];
+            ip = frameIps[frameCount - 1];
+            break;
+          }
+      }
+    }
+  }
+
+  private void call(Closure closure, int argCount, int ip) {
+    if (frameCount == frameClosures.length) {
+      if (frameCount == FRAMES_MAX) {
+        throw error(frameClosures[frameCount - 1], ip, "Stack overflow.");
+      }
+      frameClosures = Arrays.copyOf(frameClosures, frameCount * 2);
+      frameIps = Arrays.copyOf(frameIps, frameCount * 2);
+      frameBases = Arrays.copyOf(frameBases, frameCount * 2);
+    }
+
+    frameClosures[frameCount] = closure;
+    frameIps[frameCount] = 0;
+    frameBases[frameCount] = sp - argCount - 1;
+    frameCount++;
+  }
+
+  private void callValue(Closure caller, int ip, int argCount) {
+    var callee = stack[sp - 1 - argCount] == Value.OBJECT ? refs[sp - 1 - argCount] : null;
+    if (callee instanceof Closure) {
+      var closure = (Closure) callee;
+      checkArity(caller, ip, closure.function.arity, argCount);
+      call(closure, argCount, ip);
+    } else if (callee instanceof NativeFunction) {
+      var function = (NativeFunction) callee;
+      checkArity(caller, ip, function.arity(), argCount);
+      var arguments = new Object[argCount];
+      for (var i = 0; i < argCount; i++) {
+        var slot = sp - argCount + i;
+        arguments[i] = Value.toObject(stack[slot], refs[slot]);
+      }
+      sp -= argCount + 1;
+      var result = function.call(arguments);
+      var value = Value.of(result);
+      push(value, value == Value.OBJECT ? result : null);
+    } else {
+      throw error(caller, ip, "Can only call functions and classes.");
+    }
+  }
+
+  private Upvalue captureUpvalue(int slot) {
+    Upvalue previous = null;
+    var upvalue = openUpvalues;
+    while (upvalue != null && upvalue.slot > slot) {
+      previous = upvalue;
+      upvalue = upvalue.next;
+    }
+
+    if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+    var created = new Upvalue(slot, upvalue);
+    if (previous == null) {
+      openUpvalues = created;
+    } else {
+      previous.next = created;
+    }
+    return created;
+  }
+
+  private void checkArity(Closure caller, int ip, int arity, int argCount) {
+    if (argCount != arity) {
+      var message = String.format("Expected %s arguments but got %s.", arity, argCount);
+      throw error(caller, ip, message);
+    }
+  }
+
+  private void checkNumberOperands(Closure closure, int ip) {
+    if (Value.isNumber(stack[sp - 2]) && Value.isNumber(stack[sp - 1])) return;
+
+    throw error(closure, ip, "Operands must be numbers.");
+  }
+
+  private void closeUpvalues(int last) {
+    while (openUpvalues != null && openUpvalues.slot >= last) {
+      openUpvalues.close(stack, refs);
+      openUpvalues = openUpvalues.next;
+    }
+  }
+
+  private VmError error(Closure closure, int ip, String message) {
+    return new VmError(closure.function.chunk.lines[ip - 1], message);
+  }
+
+  private boolean isEqual(int left, int right) {
+    if (stack[left] == Value.OBJECT && stack[right] == Value.OBJECT) {
+      return refs[left].equals(refs[right]);
+    }
+    return stack[left] == stack[right];
+  }
+
+  private double number(int slot) {
+    return Value.asNumber(stack[slot]);
+  }
+
+  private void push(long value, Object ref) {
+    if (sp == stack.length) {
+      stack = Arrays.copyOf(stack, sp * 2);
+      refs = Arrays.copyOf(refs, sp * 2);
+    }
+    stack[sp] = value;
+    refs[sp] = ref;
+    sp++;
+  }
+
+  private int readShort(byte[] code, int ip) {
+    return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+  }
+
+  private String stringify(long value, Object ref) {
+    if (Value.isNumber(value)) {
+      String text = Double.toString(Value.asNumber(value));
+      if (text.endsWith(".0")) {
+        text = text.substring(0, text.length() - 2);
+      }
+      return text;
+    }
+
+    if (value == Value.NIL) return "nil";
+    if (value == Value.TRUE) return "true";
+    if (value == Value.FALSE) return "false";
+    if (ref instanceof NativeFunction) return "<native fn>";
+
+    return ref.toString();
+  }
+
+  private static final class Global {
+    long value;
+    Object ref;
+
+    Global(long value, Object ref) {
+      this.value = value;
+      this.ref = ref;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package dev.wilding.lox.vm;
+
+final class Value {
+  private static final long QNAN = 0x7ffc000000000000L;
+  private static final long SIGN = 0x8000000000000000L;
+
+  static final long NIL = QNAN | 1;
+  static final long FALSE = QNAN | 2;
+  static final long TRUE = QNAN | 3;
+  static final long OBJECT = SIGN | QNAN;
+
+  private Value() {}
+
+  static long bool(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  static boolean isFalsey(long value) {
+    return value == NIL || value == FALSE;
+  }
+
+  static boolean isNumber(long value) {
+    return (value & QNAN) != QNAN;
+  }
+
+  static long number(double value) {
+    return Double.doubleToLongBits(value);
+  }
+
+  static double asNumber(long value) {
+    return Double.longBitsToDouble(value);
+  }
+
+  static long of(Object value) {
+    if (value == null) return NIL;
+    if (value instanceof Boolean) return bool((boolean) value);
+    if (value instanceof Double) return number((double) value);
+    return OBJECT;
+  }
+
+  static Object toObject(long value, Object ref) {
+    if (isNumber(value)) return asNumber(value);
+    if (value == NIL) return null;
+    if (value == TRUE) return true;
+    if (value == FALSE) return false;
+    return ref;
+  }
+}
@@ -0,0 +1,12 @@
+package dev.wilding.lox.vm;
+
+import lombok.Getter;
+
+public class VmError extends RuntimeException {
+  @Getter final int line;
+
+  VmError(int line, String message) {
+    super(message);
+    this.line = line;
+  }
+}
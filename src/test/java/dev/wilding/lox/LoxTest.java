@@ -1,6 +1,26 @@
 package dev.wilding.lox;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.wilding.lox.vm.VM;
+import dev.wilding.lox.vm.VmError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
@@ -9,4 +29,892 @@ public class LoxTest {
   public void shouldAnswerWithTrue() {
     assertTrue(true);
   }
+
+  @Test
+  public void shouldEvaluateArithmeticAndStrings() {
+    assertOutput("print 1 + 2 * 3 - 4 / 2;\nprint \"a\" + \"b\";\nprint -1.5;", "5\nab\n-1.5\n");
+  }
+
+  @Test
+  public void shouldEvaluateComparisonsAndLogic() {
+    assertOutput(
+        "print 1 < 2; print 2 <= 1; print 0/0 == 0/0; print nil or \"x\"; print 1 and nil;",
+        "true\nfalse\ntrue\nx\nnil\n");
+  }
+
+  @Test
+  public void shouldScanKeywordsWithoutCapturingIdentifierPrefixes() {
+    var source = "fun fu funny th this thistle f for 12 1.5 \"s\"";
+    var tokens = new Scanner(source, reporter()).scanTokens();
+    var types = new ArrayList<TokenType>();
+    for (var token : tokens) types.add(token.getType());
+    assertEquals(
+        List.of(
+            TokenType.FUN, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER,
+            TokenType.THIS, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.FOR,
+            TokenType.NUMBER, TokenType.NUMBER, TokenType.STRING, TokenType.EOF),
+        types);
+    assertEquals("thistle", tokens.get(5).getLexeme());
+    assertEquals(12.0, tokens.get(8).getLiteral());
+    assertEquals(1.5, tokens.get(9).getLiteral());
+    assertEquals("\"s\"", tokens.get(10).getLexeme());
+    assertEquals("s", tokens.get(10).getLiteral());
+    assertEquals("", tokens.get(11).getLexeme());
+  }
+
+  @Test
+  public void shouldCompareTokensByTheirText() {
+    var x = new Scanner("x", reporter()).scanTokens().get(0);
+    var y = new Scanner("y", reporter()).scanTokens().get(0);
+    assertFalse(x.equals(y));
+    assertEquals(x, new Scanner("x", reporter()).scanTokens().get(0));
+  }
+
+  @Test
+  public void shouldMapAsciiAndUtf8SourceFiles() throws IOException {
+    var ascii = Files.createTempFile("lox", ".lox");
+    var utf8 = Files.createTempFile("lox", ".lox");
+    try {
+      Files.write(ascii, "print \"plain\";".getBytes(StandardCharsets.US_ASCII));
+      Files.write(utf8, "\uFEFFprint \"caf\u00e9\";".getBytes(StandardCharsets.UTF_8));
+      assertEquals("print \"plain\";", SourceFile.map(ascii).toString());
+      var plain = new Scanner(SourceFile.map(ascii), reporter()).scanTokens();
+      assertEquals("plain", plain.get(1).getLiteral());
+      var accented = new Scanner(SourceFile.map(utf8), reporter()).scanTokens();
+      assertEquals("caf\u00e9", accented.get(1).getLiteral());
+    } finally {
+      Files.delete(ascii);
+      Files.delete(utf8);
+    }
+  }
+
+  @Test
+  public void shouldExecuteEachDeclarationAsItIsParsed() {
+    var reporter = reporter();
+    var source =
+        "fun twice(n) { return n * 2; }\n"
+            + "var x = twice(2);\n"
+            + "print x;\n"
+            + "class A { get() { return x; } }\n"
+            + "print A().get();";
+    var parser = new Parser(new Scanner(source, reporter), reporter);
+    var resolver = new Resolver(reporter);
+    var buffer = new ByteArrayOutputStream();
+    var interpreter =
+        new Interpreter(Interpreter.Mode.VISITOR, new PrintStream(buffer, true), reporter);
+    var outputs = new ArrayList<String>();
+    while (parser.hasNext()) {
+      var statement = parser.parseDeclaration();
+      resolver.resolve(statement);
+      interpreter.interpret(List.of(statement));
+      outputs.add(buffer.toString());
+      buffer.reset();
+    }
+    assertEquals(List.of("", "", "4\n", "", "4\n"), outputs);
+  }
+
+  @Test
+  public void shouldFinishAStreamedStatementBeforeScanningTheNextOne() {
+    var errors = new ByteArrayOutputStream();
+    var reporter = new ErrorReporter(new PrintStream(errors, true));
+    var parser = new Parser(new Scanner("print 1;\n@print 2;", reporter), reporter);
+    var statement = parser.parseDeclaration();
+    assertFalse(reporter.isHadError());
+
+    var buffer = new ByteArrayOutputStream();
+    new Resolver(reporter).resolve(statement);
+    new Interpreter(Interpreter.Mode.VISITOR, new PrintStream(buffer, true), reporter)
+        .interpret(List.of(statement));
+    assertEquals("1\n", buffer.toString());
+
+    assertTrue(parser.hasNext());
+    parser.parseDeclaration();
+    assertTrue(errors.toString(), reporter.isHadError());
+  }
+
+  @Test
+  public void shouldRunProgramsLoadedFromTheCache() throws IOException {
+    var directory = Files.createTempDirectory("lox");
+    var script = directory.resolve("cached.lox");
+    var program =
+        "class A { init(n) { this.n = n; } get() { return this.n; } }\n"
+            + "class B < A { get() { return super.get() * 2; } }\n"
+            + "fun count(n) { var i = 0; while (i < n) i = i + 1; return i; }\n"
+            + "var label = \"r\u00e9sultat\";\n"
+            + "if (true and !nil) print label + \": \" + \"ok\";\n"
+            + "print -1.5;\n"
+            + "print B(count(3)).get();";
+    try {
+      Files.writeString(script, program, StandardCharsets.UTF_8);
+      var expected = capture(() -> new Interpreter().interpret(parse(program)));
+
+      ProgramCache.forScript(script).store(parse(program));
+      assertTrue(Files.exists(directory.resolve("cached.loxc")));
+      var statements = new ArrayList<Stmt>();
+      ProgramCache.forScript(script).load().forEachRemaining(statements::add);
+      assertEquals(expected, capture(() -> new Interpreter().interpret(statements)));
+
+      var cache = directory.resolve("cached.loxc");
+      var bytes = Files.readAllBytes(cache);
+      bytes[bytes.length - 1] ^= 1;
+      Files.write(cache, bytes);
+      assertEquals(null, ProgramCache.forScript(script).load());
+      ProgramCache.forScript(script).delete();
+      assertFalse(Files.exists(cache));
+
+      Files.writeString(script, program + "\n", StandardCharsets.UTF_8);
+      assertEquals(null, ProgramCache.forScript(script).load());
+    } finally {
+      Files.deleteIfExists(directory.resolve("cached.loxc"));
+      Files.delete(script);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void shouldKeepCachedTokensDistinctUnderTheJit() throws IOException {
+    var directory = Files.createTempDirectory("lox");
+    var script = directory.resolve("tokens.lox");
+    var program =
+        "var x = 1; var y = 2; fun f() { return x + y; }\n"
+            + "var sum = 0; for (var i = 0; i < 1500; i = i + 1) sum = sum + f();\n"
+            + "print sum;";
+    try {
+      Files.writeString(script, program, StandardCharsets.UTF_8);
+      ProgramCache.forScript(script).store(parse(program));
+      var statements = new ArrayList<Stmt>();
+      ProgramCache.forScript(script).load().forEachRemaining(statements::add);
+      var output =
+          capture(
+              () -> {
+                var interpreter = new Interpreter();
+                interpreter.enableJit(Jit.DEFAULT_THRESHOLD);
+                interpreter.interpret(statements);
+              });
+      assertEquals("4500\n", output);
+    } finally {
+      Files.deleteIfExists(directory.resolve("tokens.loxc"));
+      Files.delete(script);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void shouldRunABatchOfScriptsInFreshContexts() throws Exception {
+    var directory = Files.createTempDirectory("lox");
+    var scripts =
+        List.of(directory.resolve("a.lox"), directory.resolve("b.lox"), directory.resolve("c.lox"));
+    try {
+      Files.writeString(scripts.get(0), "var x = 1; print x;");
+      Files.writeString(scripts.get(1), "print x;");
+      Files.writeString(scripts.get(2), "print;");
+      assertEquals(scripts, LoxBatch.scripts(directory));
+
+      var out = new ByteArrayOutputStream();
+      var err = new ByteArrayOutputStream();
+      var batch =
+          new LoxBatch(new LoxEngine(), 2, new PrintStream(out, true), new PrintStream(err, true));
+      assertEquals(70, batch.run(scripts));
+      assertEquals("==> " + scripts.get(0) + " <==\n1\n", out.toString());
+      var errors = err.toString();
+      assertTrue(errors, errors.contains("==> " + scripts.get(1) + " <==\nUndefined variable 'x'."));
+      assertTrue(errors, errors.contains("==> " + scripts.get(2) + " <==\n[line 1] Error at ';'"));
+      assertTrue(errors, errors.contains("  70 "));
+      assertTrue(errors, errors.contains("3 scripts, 2 failed: "));
+    } finally {
+      for (var script : scripts) Files.deleteIfExists(script);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void shouldRunOneProgramInIsolatedContextsConcurrently() throws Exception {
+    for (var backend : LoxEngine.Backend.values()) {
+      var engine = new LoxEngine(backend, false);
+      var program =
+          engine.compile(
+              "var total = 0;\n"
+                  + "fun add(n) { total = total + n; }\n"
+                  + "for (var i = 1; i <= 1000; i = i + 1) add(i);\n"
+                  + "print total;");
+      var threads = new ArrayList<Thread>();
+      var outputs = new ArrayList<ByteArrayOutputStream>();
+      for (var i = 0; i < 4; i++) {
+        var buffer = new ByteArrayOutputStream();
+        var context = engine.newContext(new PrintStream(buffer, true));
+        outputs.add(buffer);
+        threads.add(new Thread(() -> context.run(program)));
+      }
+      for (var thread : threads) thread.start();
+      for (var thread : threads) thread.join();
+      for (var output : outputs) assertEquals(backend.name(), "500500\n", output.toString());
+    }
+  }
+
+  @Test
+  public void shouldCollectCompileAndRuntimeErrorsPerContext() {
+    var engine = new LoxEngine();
+    try {
+      engine.compile("print 1 +;\nvar = 2;");
+      fail();
+    } catch (LoxException error) {
+      assertEquals(
+          List.of(
+              "[line 1] Error at ';': Expect expression.",
+              "[line 2] Error at '=': Expect variable name."),
+          error.getErrors());
+    }
+
+    var context = engine.newContext(new PrintStream(new ByteArrayOutputStream(), true));
+    context.run(engine.compile("var x = 1;"));
+    try {
+      context.run(engine.compile("print x + \"a\";"));
+      fail();
+    } catch (LoxException error) {
+      assertEquals(
+          List.of("Operands must be two numbers or two strings.\n[line 1]"), error.getErrors());
+    }
+  }
+
+  @Test
+  public void shouldRunAgainAfterACancelledRun() {
+    for (var backend : LoxEngine.Backend.values()) {
+      var engine = new LoxEngine(backend, false);
+      var buffer = new ByteArrayOutputStream();
+      var context = engine.newContext(new PrintStream(buffer, true));
+      context.cancel();
+      try {
+        context.run(engine.compile("while (true) {}"));
+        fail(backend.name());
+      } catch (LoxException error) {
+        var message = error.getErrors().get(0);
+        assertTrue(message, message.startsWith(ExecutionCancelled.MESSAGE));
+      }
+
+      context.run(engine.compile("var i = 0; while (i < 3) i = i + 1; print i;"));
+      assertEquals(backend.name(), "3\n", buffer.toString());
+    }
+  }
+
+  @Test
+  public void shouldKeepRunningABatchAfterAScriptCrashes() throws Exception {
+    var directory = Files.createTempDirectory("lox");
+    var scripts = List.of(directory.resolve("a.lox"), directory.resolve("b.lox"));
+    try {
+      Files.writeString(scripts.get(0), "fun f(n) { return 1 + f(n); } f(1);");
+      Files.writeString(scripts.get(1), "print 2;");
+
+      var out = new ByteArrayOutputStream();
+      var err = new ByteArrayOutputStream();
+      var batch =
+          new LoxBatch(new LoxEngine(), 1, new PrintStream(out, true), new PrintStream(err, true));
+      assertEquals(70, batch.run(scripts));
+      assertEquals("==> " + scripts.get(1) + " <==\n2\n", out.toString());
+      var errors = err.toString();
+      assertTrue(errors, errors.contains("==> " + scripts.get(0) + " <==\nStack overflow.\n"));
+      assertTrue(errors, errors.contains("2 scripts, 1 failed: "));
+    } finally {
+      for (var script : scripts) Files.deleteIfExists(script);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void shouldShareUnloadableJitCodeBetweenContextsOfOneProgram() {
+    var engine = new LoxEngine(LoxEngine.Backend.TREE, true);
+    var program =
+        engine.compile(
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+                + "print fib(20);");
+    for (var i = 0; i < 2; i++) {
+      var out = new ByteArrayOutputStream();
+      engine.newContext(new PrintStream(out, true)).run(program);
+      assertEquals("6765\n", out.toString());
+    }
+
+    var compiled = program.getCompiledFunctions().values();
+    assertEquals(1, compiled.size());
+    var name = compiled.iterator().next().getClass().getName();
+    assertTrue(name, name.contains("/"));
+  }
+
+  @Test
+  public void shouldKeepSameShapedFunctionsApartUnderTheJit() {
+    var engine = new LoxEngine(LoxEngine.Backend.TREE, true);
+    var program =
+        engine.compile(
+            "fun f(a, b) { return a; } fun g(a, b) { return b; }\n"
+                + "for (var i = 0; i < 1500; i = i + 1) { f(1, 2); g(1, 2); }\n"
+                + "print f(1, 2); print g(1, 2);");
+    for (var i = 0; i < 2; i++) {
+      var out = new ByteArrayOutputStream();
+      engine.newContext(new PrintStream(out, true)).run(program);
+      assertEquals("1\n2\n", out.toString());
+    }
+    assertEquals(2, program.getCompiledFunctions().size());
+  }
+
+  @Test
+  public void shouldCompileFunctionsThatReturnACall() {
+    var engine = new LoxEngine(LoxEngine.Backend.TREE, true);
+    var program =
+        engine.compile(
+            "fun helper(x) { return x + 1; }\n"
+                + "fun wrapper(x) { return helper(x); }\n"
+                + "fun loop(n) { if (n == 0) return 0; return loop(n - 1); }\n"
+                + "var sum = 0; for (var i = 0; i < 1500; i = i + 1) sum = wrapper(sum);\n"
+                + "for (var i = 0; i < 1000; i = i + 1) loop(1);\n"
+                + "print sum; print loop(100000);");
+    var out = new ByteArrayOutputStream();
+    engine.newContext(new PrintStream(out, true)).run(program);
+    assertEquals("1500\n0\n", out.toString());
+    assertEquals(3, program.getCompiledFunctions().size());
+  }
+
+  @Test
+  public void shouldServeScriptsFromCachedPrograms() throws Exception {
+    try (var server = new LoxServer(new LoxEngine(), 2, 4, 5_000)) {
+      var port = server.start(0);
+      assertEquals("ok\n3\n", submit(port, "print 1 + 2;"));
+      assertEquals("ok\n3\n", submit(port, "print 1 + 2;"));
+      assertEquals("error\n[line 1] Error at ';': Expect expression.\n", submit(port, "print;"));
+      assertEquals(
+          "error\nStack overflow.\n", submit(port, "fun f(n) { return 1 + f(n); } f(1);"));
+      assertEquals(2, server.getCompilations());
+    }
+  }
+
+  @Test
+  public void shouldCancelServedScriptsThatRunPastTheirTimeout() throws Exception {
+    for (var backend : LoxEngine.Backend.values()) {
+      try (var server = new LoxServer(new LoxEngine(backend, false), 1, 1, 200)) {
+        var response = submit(server.start(0), "print 1;\nwhile (true) {}");
+        assertTrue(response, response.startsWith("timeout\n1\nExecution cancelled."));
+      }
+    }
+  }
+
+  @Test
+  public void shouldCancelServedScriptsThatOnlyRecurse() throws Exception {
+    var engines = new ArrayList<LoxEngine>();
+    for (var backend : LoxEngine.Backend.values()) engines.add(new LoxEngine(backend, false));
+    engines.add(new LoxEngine(LoxEngine.Backend.TREE, true));
+    for (var engine : engines) {
+      try (var server = new LoxServer(engine, 1, 1, 200)) {
+        var response =
+            submit(
+                server.start(0),
+                "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+                    + "print fib(60);");
+        assertTrue(response, response.startsWith("timeout\nExecution cancelled."));
+      }
+    }
+  }
+
+  @Test
+  public void shouldRejectRequestsBeyondTheAdmissionLimits() throws Exception {
+    try (var server = new LoxServer(new LoxEngine(), 1, 0, 1_000)) {
+      var port = server.start(0);
+      var pool = Executors.newFixedThreadPool(2);
+      try {
+        var first = pool.submit(() -> submit(port, "while (true) {}"));
+        Thread.sleep(200);
+        var second = pool.submit(() -> submit(port, "print 1;"));
+        assertEquals("busy\nToo many requests in flight.\n", second.get());
+        assertTrue(first.get().startsWith("timeout\n"));
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void shouldBoundHowLongAClientCanTakeToSendItsRequest() throws Exception {
+    try (var server = new LoxServer(new LoxEngine(), 1, 0, 1_000)) {
+      var port = server.start(0);
+      var pool = Executors.newFixedThreadPool(3);
+      try {
+        var first = pool.submit(() -> submit(port, "while (true) {}"));
+        Thread.sleep(200);
+        var trickled = pool.submit(() -> trickle(port, 3_000));
+        Thread.sleep(200);
+        var second = pool.submit(() -> submit(port, "print 1;"));
+        assertEquals("busy\nToo many requests in flight.\n", second.get());
+        assertTrue(first.get().startsWith("timeout\n"));
+        assertTrue(trickled.get() < 3_000);
+
+        var start = System.nanoTime();
+        trickle(port, 3_000);
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void shouldSampleTheLoxCallStackByLine() throws IOException {
+    var profiler = new Profiler(100);
+    var out = new PrintStream(new ByteArrayOutputStream(), true);
+    var interpreter = new Interpreter(Interpreter.Mode.VISITOR, out, reporter());
+    interpreter.enableProfiler(profiler);
+    profiler.start();
+    interpreter.interpret(
+        parse(
+            "fun fib(n) {\n"
+                + "  if (n < 2) return n;\n"
+                + "  return fib(n - 1) + fib(n - 2);\n"
+                + "}\n"
+                + "print fib(22);"));
+    profiler.stop();
+
+    var report = new ByteArrayOutputStream();
+    profiler.report(new PrintStream(report, true));
+    assertTrue(report.toString(), report.toString().contains("  fib:3\n"));
+    assertTrue(report.toString(), report.toString().contains("%    fib\n"));
+
+    var collapsed = Files.createTempFile("lox", ".collapsed");
+    try {
+      profiler.writeCollapsed(collapsed);
+      var stacks = Files.readAllLines(collapsed);
+      var recursive = stacks.stream().anyMatch(stack -> stack.startsWith("<script>:5;fib:3;"));
+      assertTrue(stacks.toString(), recursive);
+    } finally {
+      Files.delete(collapsed);
+    }
+  }
+
+  @Test
+  public void shouldCountExecutionStatsAndPublishThemOverJmx() throws JMException {
+    var engine = new LoxEngine(LoxEngine.Backend.TREE, false, true);
+    var program =
+        engine.compile(
+            "fun f(n) { if (n < 1) return 0; return 1 + f(n - 1); }\n"
+                + "for (var i = 0; i < 3; i = i + 1) f(2);\n"
+                + "nil();");
+    var server = ManagementFactory.getPlatformMBeanServer();
+    var name = new ObjectName(LoxStats.OBJECT_NAME);
+    var runs = (long) server.getAttribute(name, "Runs");
+    var before = LoxStats.total();
+    try {
+      engine.newContext(new PrintStream(new ByteArrayOutputStream(), true)).run(program);
+      fail("Expected a runtime error.");
+    } catch (LoxException expected) {
+      // Calling nil ends the run.
+    }
+    var after = LoxStats.total();
+
+    assertEquals(9, after.calls - before.calls);
+    assertEquals(1, after.runtimeErrors - before.runtimeErrors);
+    assertTrue(after.maxDepth >= 3);
+    for (var phase : Stats.Phase.values()) {
+      assertTrue(phase.getName(), after.wallNanos[phase.ordinal()] > 0);
+    }
+
+    var statements = (long) server.getAttribute(name, "StatementsExecuted");
+    assertTrue(statements >= after.statements);
+    assertEquals(runs + 1, (long) server.getAttribute(name, "Runs"));
+  }
+
+  @Test
+  public void shouldAttributeAllocationsToLinesAndNodeKinds() {
+    var allocations = new AllocationTracker(SizeModel.COMPRESSED);
+    var out = new PrintStream(new ByteArrayOutputStream(), true);
+    var interpreter = new Interpreter(Interpreter.Mode.VISITOR, out, reporter());
+    interpreter.enableAllocationTracking(allocations);
+    interpreter.interpret(
+        parse(
+            "fun id(x) { return x; }\n"
+                + "var s = \"\";\n"
+                + "for (var i = 0; i < 10; i = i + 1) {\n"
+                + "  s = s + \"ab\";\n"
+                + "  id(i * 2);\n"
+                + "}"));
+
+    var report = new ByteArrayOutputStream();
+    allocations.report(new PrintStream(report, true));
+    var lines = report.toString();
+    assertTrue(lines, lines.contains(" 544           20      4  Binary   String\n"));
+    assertTrue(lines, lines.contains(" 240           10      5  Binary   Double\n"));
+    assertTrue(lines, lines.contains(" 480           20      5  Call     Environment\n"));
+    assertTrue(lines, lines.contains(" 848           42      3  Block    Environment\n"));
+    assertEquals(32, SizeModel.fromName("16,24,8,8").array(1, 8));
+  }
+
+  @Test
+  public void shouldResolveShadowedAndGlobalVariables() {
+    assertOutput(
+        "var a = \"global\";\n"
+            + "{\n"
+            + "  fun show() { print a; }\n"
+            + "  show();\n"
+            + "  var a = \"block\";\n"
+            + "  show();\n"
+            + "  print a;\n"
+            + "}",
+        "global\nglobal\nblock\n");
+  }
+
+  @Test
+  public void shouldResolveRepeatedReferencesOnOneLine() {
+    assertOutput("var s = 0; for (var i = 0; i < 5; i = i + 1) { s = s + i; } print s;", "10\n");
+  }
+
+  @Test
+  public void shouldCaptureClosedOverVariables() {
+    assertOutput(
+        "fun makeCounter() {\n"
+            + "  var i = 0;\n"
+            + "  fun count() { i = i + 1; return i; }\n"
+            + "  return count;\n"
+            + "}\n"
+            + "var counter = makeCounter();\n"
+            + "counter();\n"
+            + "print counter();\n"
+            + "fun adder(n) { fun add(m) { return n + m; } return add; }\n"
+            + "print adder(5)(10);",
+        "2\n15\n");
+  }
+
+  @Test
+  public void shouldRecurse() {
+    assertOutput(
+        "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\nprint fib(15);",
+        "610\n");
+  }
+
+  @Test
+  public void shouldPassArgumentsForEveryArity() {
+    assertOutput(
+        "fun zero() { return 0; }\n"
+            + "fun one(a) { return a; }\n"
+            + "fun two(a, b) { return a - b; }\n"
+            + "fun three(a, b, c) { return a - b - c; }\n"
+            + "fun five(a, b, c, d, e) { return a - b - c - d - e; }\n"
+            + "print zero();\n"
+            + "print one(1);\n"
+            + "print two(5, 3);\n"
+            + "print three(9, 3, 1);\n"
+            + "print five(20, 1, 2, 3, 4);\n"
+            + "five(1, 2);",
+        "0\n1\n2\n5\n10\nExpected 5 arguments but got 2.\n[line 11]\n");
+  }
+
+  @Test
+  public void shouldRunTailCallsInConstantStackDepth() {
+    assertInterpreterOutput(
+        "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }\n"
+            + "print count(200000, 0);\n"
+            + "fun isEven(n) { if (n == 0) return true; return isOdd(n - 1); }\n"
+            + "fun isOdd(n) { if (n == 0) return false; return isEven(n - 1); }\n"
+            + "print isEven(100001);",
+        "200000\nfalse\n");
+  }
+
+  @Test
+  public void shouldKeepClosuresCapturedAcrossTailCalls() {
+    assertOutput(
+        "var first;\n"
+            + "fun loop(n) {\n"
+            + "  fun get() { return n; }\n"
+            + "  if (first == nil) first = get;\n"
+            + "  if (n == 0) return get;\n"
+            + "  return loop(n - 1);\n"
+            + "}\n"
+            + "print loop(3)();\n"
+            + "print first();",
+        "0\n3\n");
+  }
+
+  @Test
+  public void shouldReturnFromInsideLoopsAndBlocks() {
+    assertOutput(
+        "fun find(n) {\n"
+            + "  for (var i = 0; i < 10; i = i + 1) {\n"
+            + "    { if (i == n) return i * 10; }\n"
+            + "  }\n"
+            + "  print \"missing\";\n"
+            + "}\n"
+            + "print find(3);\n"
+            + "print find(20);\n"
+            + "var x = \"after\";\n"
+            + "print x;",
+        "30\nmissing\nnil\nafter\n");
+  }
+
+  @Test
+  public void shouldDespecializeWhenOperandTypesChange() {
+    assertOutput(
+        "fun add(a, b) { return a + b; }\n"
+            + "print add(1, 2);\n"
+            + "print add(\"a\", \"b\");\n"
+            + "print add(1, \"b\");",
+        "3\nab\nOperands must be two numbers or two strings.\n[line 1]\n");
+  }
+
+  @Test
+  public void shouldDespecializeWhenCallTargetChanges() {
+    assertOutput(
+        "fun one() { return 1; }\n"
+            + "fun two() { return 2; }\n"
+            + "fun call(f) { return f(); }\n"
+            + "print call(one);\n"
+            + "print call(two);\n"
+            + "print call(clock) > 0;",
+        "1\n2\ntrue\n");
+  }
+
+  @Test
+  public void shouldCountInlineCacheHitsAndMisses() {
+    var statements =
+        parse(
+            "fun a() { return 1; } fun b() { return 2; } fun c() { return 3; }\n"
+                + "fun d() { return 4; } fun e() { return 5; }\n"
+                + "fun call(f) { return f() + 0; }\n"
+                + "for (var i = 0; i < 3; i = i + 1) call(a);\n"
+                + "print call(b) + call(c) + call(d) + call(e);");
+    var buffer = new ByteArrayOutputStream();
+    var out = new PrintStream(buffer, true);
+    var interpreter = new Interpreter(Interpreter.Mode.VISITOR, out, reporter());
+
+    interpreter.interpret(statements);
+    assertEquals("14\n", buffer.toString());
+    var report = capture(() -> interpreter.reportCallSites(System.out));
+    assertTrue(report.startsWith("[line 4] call: 2 hits, 1 misses, 1 targets\n"));
+    assertTrue(report.contains("[line 3] call: 2 hits, 5 misses, 4 targets (megamorphic)\n"));
+  }
+
+  @Test
+  public void shouldCreateInstancesWithFieldsAndMethods() {
+    assertInterpreterOutput(
+        "class Breakfast {\n"
+            + "  init(meat, bread) { this.meat = meat; this.bread = bread; }\n"
+            + "  serve(who) { return this.meat + \" and \" + this.bread + \", \" + who; }\n"
+            + "}\n"
+            + "var toast = Breakfast(\"bacon\", \"toast\");\n"
+            + "print Breakfast;\n"
+            + "print toast;\n"
+            + "print toast.serve(\"Reader\");\n"
+            + "var serve = toast.serve;\n"
+            + "toast.meat = \"ham\";\n"
+            + "print serve(\"again\");\n"
+            + "print toast.init(\"egg\", \"rye\") == toast;\n"
+            + "print toast.meat;",
+        "Breakfast\nBreakfast instance\nbacon and toast, Reader\nham and toast, again\n"
+            + "true\negg\n");
+  }
+
+  @Test
+  public void shouldReadFieldsAcrossShapesAtOneSite() {
+    assertInterpreterOutput(
+        "class Point {}\n"
+            + "fun make(order, x, y) {\n"
+            + "  var p = Point();\n"
+            + "  if (order) { p.x = x; p.y = y; } else { p.y = y; p.x = x; }\n"
+            + "  return p;\n"
+            + "}\n"
+            + "var sum = 0;\n"
+            + "for (var i = 0; i < 10; i = i + 1) {\n"
+            + "  var p = make(i < 5, i, 1);\n"
+            + "  sum = sum + p.x * p.y;\n"
+            + "}\n"
+            + "print sum;\n"
+            + "class Point {}\n"
+            + "var q = Point();\n"
+            + "q.y = 7;\n"
+            + "print make(true, 1, 2).x + q.y;",
+        "45\n8\n");
+  }
+
+  @Test
+  public void shouldInheritAndCallSuperMethods() {
+    assertInterpreterOutput(
+        "class A { name() { return \"A\"; } greet() { return \"hi \" + this.name(); } }\n"
+            + "class B < A { name() { return \"B\"; } greet() { return super.greet() + \"!\"; } }\n"
+            + "class C < B {}\n"
+            + "print C().greet();\n"
+            + "class D < A { init(x) { this.x = x; return; } }\n"
+            + "print D(3).x;",
+        "hi B!\n3\n");
+  }
+
+  @Test
+  public void shouldInvokeMethodsThroughFieldsAndRedefinedClasses() {
+    assertInterpreterOutput(
+        "class Breakfast { serve(who) { return \"old \" + who; } }\n"
+            + "fun serve(b) { return b.serve(\"you\"); }\n"
+            + "print serve(Breakfast());\n"
+            + "class Breakfast { serve(who) { return \"new \" + who; } }\n"
+            + "class Brunch < Breakfast {}\n"
+            + "print serve(Breakfast());\n"
+            + "print serve(Brunch());\n"
+            + "var b = Breakfast();\n"
+            + "fun shout(who) { return who + \"!\"; }\n"
+            + "b.serve = shout;\n"
+            + "print serve(b);\n"
+            + "print b.missing();",
+        "old you\nnew you\nnew you\nyou!\nUndefined property 'missing'.\n[line 12]\n");
+  }
+
+  @Test
+  public void shouldRunMethodTailCallsInConstantStackDepth() {
+    assertInterpreterOutput(
+        "class Counter {\n"
+            + "  count(n, acc) { if (n == 0) return acc; return this.count(n - 1, acc + 1); }\n"
+            + "}\n"
+            + "print Counter().count(200000, 0);\n"
+            + "print Counter().count(1);",
+        "200000\nExpected 2 arguments but got 1.\n[line 5]\n");
+  }
+
+  @Test
+  public void shouldReportPropertyErrors() {
+    assertInterpreterOutput(
+        "class A {}\nprint A().missing;", "Undefined property 'missing'.\n[line 2]\n");
+    assertInterpreterOutput(
+        "var a = 1;\nprint a.b;", "Only instances have properties.\n[line 2]\n");
+    assertInterpreterOutput("var a = 1;\na.b = 2;", "Only instances have fields.\n[line 2]\n");
+    assertInterpreterOutput(
+        "var A = 1;\nclass B < A {}", "Superclass must be a class.\n[line 2]\n");
+    assertInterpreterOutput("class A {}\nA(1);", "Expected 0 arguments but got 1.\n[line 2]\n");
+  }
+
+  @Test
+  public void shouldRejectClassesOnOtherEngines() {
+    var statements = parse("class A {}");
+
+    assertEquals(
+        "Classes require the tree-walking interpreter.\n[line 1]\n",
+        capture(() -> new Interpreter(Interpreter.Mode.NODES).interpret(statements)));
+    assertEquals(
+        "Classes require the tree-walking interpreter.\n[line 1]\n",
+        capture(() -> new Interpreter(Interpreter.Mode.CLOSURES).interpret(statements)));
+  }
+
+  @Test
+  public void shouldStringifyCallables() {
+    assertOutput("fun f() {}\nprint f;\nprint clock;\nprint f();", "<fn f>\n<native fn>\nnil\n");
+  }
+
+  @Test
+  public void shouldReportRuntimeErrors() {
+    assertOutput(
+        "print 1;\nprint 1 + \"a\";",
+        "1\nOperands must be two numbers or two strings.\n[line 2]\n");
+    assertOutput("print -\"a\";", "Operand must be a number.\n[line 1]\n");
+    assertOutput("fun f(a) {}\nf();", "Expected 1 arguments but got 0.\n[line 2]\n");
+    assertOutput("\"a\"();", "Can only call functions and classes.\n[line 1]\n");
+    assertOutput("print missing;", "Undefined variable 'missing'.\n[line 1]\n");
+  }
+
+  private static void assertOutput(String source, String expected) {
+    var statements = parse(source);
+
+    assertEquals("tree", expected, capture(() -> new Interpreter().interpret(statements)));
+    assertEquals(
+        "jit",
+        expected,
+        capture(
+            () -> {
+              var interpreter = new Interpreter();
+              interpreter.enableJit(1);
+              interpreter.interpret(statements);
+            }));
+    assertEquals(
+        "nodes",
+        expected,
+        capture(() -> new Interpreter(Interpreter.Mode.NODES).interpret(statements)));
+    assertEquals(
+        "closures",
+        expected,
+        capture(() -> new Interpreter(Interpreter.Mode.CLOSURES).interpret(statements)));
+    assertEquals(
+        "vm",
+        expected,
+        capture(
+            () -> {
+              try {
+                new VM().interpret(new Compiler(reporter()).compile(statements));
+              } catch (VmError error) {
+                System.out.println(error.getMessage() + "\n[line " + error.getLine() + "]");
+              }
+            }));
+  }
+
+  private static void assertInterpreterOutput(String source, String expected) {
+    var statements = parse(source);
+
+    assertEquals("tree", expected, capture(() -> new Interpreter().interpret(statements)));
+    assertEquals(
+        "jit",
+        expected,
+        capture(
+            () -> {
+              var interpreter = new Interpreter();
+              interpreter.enableJit(1);
+              interpreter.interpret(statements);
+            }));
+  }
+
+  private static String submit(int port, String source) throws IOException {
+    try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.getOutputStream().write(source.getBytes(StandardCharsets.UTF_8));
+      socket.shutdownOutput();
+      return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static long trickle(int port, long millis) throws Exception {
+    var start = System.nanoTime();
+    try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      var writer =
+          new Thread(
+              () -> {
+                try {
+                  while (System.nanoTime() - start < millis * 1_000_000) {
+                    socket.getOutputStream().write(' ');
+                    Thread.sleep(50);
+                  }
+                } catch (IOException | InterruptedException stopped) {
+                  // The server closed the connection.
+                }
+              });
+      writer.start();
+      try {
+        socket.getInputStream().readAllBytes();
+      } catch (IOException reset) {
+        // The server gave up on the request.
+      }
+      writer.interrupt();
+      writer.join();
+    }
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  private static ErrorReporter reporter() {
+    return new ErrorReporter(System.err);
+  }
+
+  private static String capture(Runnable runnable) {
+    var out = System.out;
+    var err = System.err;
+    var buffer = new ByteArrayOutputStream();
+    var stream = new PrintStream(buffer, true);
+    try {
+      System.setOut(stream);
+      System.setErr(stream);
+      runnable.run();
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+    return buffer.toString();
+  }
+
+  private static List<Stmt> parse(String source) {
+    var reporter = reporter();
+    var statements = new Parser(new Scanner(source, reporter), reporter).parse();
+    new Resolver(reporter).resolve(statements);
+    return statements;
+  }
 }